@@ -1,8 +1,14 @@
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.security.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32C;
+import java.util.zip.Deflater;
 
 public class Client {
 
@@ -11,25 +17,135 @@ public class Client {
     private static final int PORT = 3923;
     private static final String FILE_TO_SEND = "Board.jpeg"; // File to be sent
     private static final int N_ROUNDS = 20; // Number of rounds to run the simulation
-    private static final int CHUNK_SIZE = 1024; // bytes / packet
+    private static final int CHUNK_SIZE = 1024; // Default bytes / packet, also the smallest the server agrees to
     private static final int INITIAL_SSTHRESH = 8; // Initial ssthresh in packets
     private static final long INITIAL_RTO_MS = 200; // Initial RTO
+    private static final long MIN_RTO_MS = 10; // Floor so scheduling jitter does not fire spurious timeouts
     private static final long MAX_TIMEOUT_MS = 5000; // Cap timeout to 5 seconds
+    private static final int MAX_RECONNECTS = 5; // Attempts to resume after the connection drops
+    private static final long RECONNECT_BACKOFF_MS = 500; // Doubled after each failed attempt
+    private static final int HANDSHAKE_TIMEOUT_MS = 15000; // Covers a wait in the server's admission queue
+    private static final long VERDICT_TIMEOUT_MS = 60000; // Covers the server hashing the whole file after EOF
+
+    // --- Wire format flags (must match server's) ---
+    private static final byte FLAG_PARITY = 0x01; // Data header: payload is an FEC parity block
+    private static final byte FLAG_COMPRESSED = 0x02; // Data header: payload is a raw-deflated chunk
+    private static final byte FLAG_ECT = 0x04; // Data header: sender is ECN-capable, mark instead of dropping
+    private static final byte FLAG_PROBE = 0x08; // Data header: padding that tests whether a bigger chunk size gets through
+    private static final byte ACK_RECOVERED = 0x01; // ACK header: triggered by an FEC recovery
+    private static final byte ACK_ECE = 0x02; // ACK header: the packet was ECN-marked (congestion experienced)
+    private static final byte ACK_PROBE = 0x04; // ACK header: answers a size probe, acknowledges no new data
 
     // --- TCP Congestion Control Modes ---
-    private enum Mode {
-        TAHOE, RENO
+    enum Mode {
+        TAHOE, RENO, VEGAS
     }
 
     // --- Packet Definition ---
+    // Packets are reusable slots of the SendBuffer; fields are reset by SendBuffer.add.
     private static final class Packet {
-        final int seq;
+        int seq;
         final byte[] data;
-        long sendTime;
+        int len;
+        byte flags;
+        long sendTime; // System.nanoTime() of the first transmission
+        boolean retransmitted; // Karn's rule: ACKs covering this packet are ambiguous
+
+        Packet(int capacity) {
+            this.data = new byte[capacity];
+        }
+    }
+
+    // --- Send Buffer ---
+    // Circular array of un-ACKed packets indexed by seq from the oldest one held. Releasing
+    // ACKed packets costs O(acked) and slots are recycled, so steady-state sending allocates
+    // nothing; the ring only doubles when the window outgrows it.
+    private static final class SendBuffer {
+        private final int chunkSize;
+        private Packet[] slots;
+        private int mask;
+        private int head = 1; // Oldest seq held
+        private int tail = 1; // One past the newest seq held
+
+        SendBuffer(int initialCapacity, int chunkSize) {
+            this.chunkSize = chunkSize;
+            int cap = Integer.highestOneBit(Math.max(initialCapacity - 1, 1)) << 1;
+            slots = new Packet[cap];
+            for (int i = 0; i < cap; i++) slots[i] = new Packet(chunkSize);
+            mask = cap - 1;
+        }
+
+        /** Claims the slot for the next sequence number; {@code seq} must equal the current tail. */
+        Packet add(int seq) {
+            if (seq != tail) throw new IllegalStateException("Expected seq " + tail + ", got " + seq);
+            if (tail - head == slots.length) grow();
+            Packet p = slots[seq & mask];
+            p.seq = seq;
+            p.len = 0;
+            p.flags = 0;
+            p.sendTime = 0;
+            p.retransmitted = false;
+            tail++;
+            return p;
+        }
+
+        /** Returns the held packet for {@code seq}, or null if it was released or never added. */
+        Packet get(int seq) {
+            return (seq >= head && seq < tail) ? slots[seq & mask] : null;
+        }
+
+        /** Drops everything held and continues numbering from {@code seq}. */
+        void reset(int seq) {
+            head = tail = seq;
+        }
 
-        Packet(int seq, byte[] data) {
-            this.seq = seq;
-            this.data = data;
+        /** Releases every packet with seq <= ack; returns how many were released. */
+        int release(int ack) {
+            int upTo = Math.min(ack + 1, tail);
+            int released = Math.max(upTo - head, 0);
+            head += released;
+            return released;
+        }
+
+        private void grow() {
+            Packet[] bigger = new Packet[slots.length * 2];
+            int newMask = bigger.length - 1;
+            for (int seq = head; seq < tail; seq++) bigger[seq & newMask] = slots[seq & mask];
+            for (int i = 0; i < bigger.length; i++) {
+                if (bigger[i] == null) bigger[i] = new Packet(chunkSize);
+            }
+            slots = bigger;
+            mask = newMask;
+        }
+    }
+
+    // --- Pacer ---
+    // Token bucket refilled at cwnd / srtt packets per nanosecond, so a window is spread
+    // over one RTT instead of leaving back to back. BURST bounds how many tokens can pile up.
+    private static final class Pacer {
+        private static final double BURST = 2;
+        private double tokens = BURST;
+        private double ratePerNano;
+        private long lastRefill = System.nanoTime();
+
+        void setRate(int cwnd, double srttNanos) {
+            refill();
+            ratePerNano = cwnd / Math.max(srttNanos, 1);
+        }
+
+        void acquire() {
+            refill();
+            while (tokens < 1) {
+                LockSupport.parkNanos((long) Math.ceil((1 - tokens) / ratePerNano));
+                refill();
+            }
+            tokens -= 1;
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(BURST, tokens + (now - lastRefill) * ratePerNano);
+            lastRefill = now;
         }
     }
 
@@ -38,6 +154,8 @@ public class Client {
     private final int port;
     private final Path file;
     private final Mode mode;
+    private boolean pacing = false;
+    private final Pacer pacer = new Pacer();
 
     private Socket sock;
     private DataInputStream in;
@@ -46,19 +164,49 @@ public class Client {
     // Congestion Control State
     private volatile int cwnd = 1;
     private volatile int ssthresh = INITIAL_SSTHRESH;
+    private volatile int rwnd = Integer.MAX_VALUE; // Receive window advertised by the server's scheduler
+    private String tenant = "default";
 
     // Sliding Window & Packet Buffer
     private volatile int base = 1; // Oldest un-ACKed packet
     private int nextSeq = 1; // Next packet sequence number to send
-    private final Map<Integer, Packet> sentPackets = new ConcurrentHashMap<>();
+    private SendBuffer sendBuffer = new SendBuffer(INITIAL_SSTHRESH * 2, CHUNK_SIZE); // Rebuilt when chunkSize changes
+    private byte[] fileBytes;
 
-    // RTT / RTO Estimation
-    private double estRtt = INITIAL_RTO_MS;
+    // RTT / RTO Estimation (all in nanoseconds)
+    private volatile double estRtt = TimeUnit.MILLISECONDS.toNanos(INITIAL_RTO_MS);
     private double devRtt = 0;
-    private volatile long rto = INITIAL_RTO_MS;
+    private volatile long rto = TimeUnit.MILLISECONDS.toNanos(INITIAL_RTO_MS);
+    private boolean rttSampled = false;
     private static final double ALPHA = 0.125;
     private static final double BETA = 0.25;
 
+    // HyStart (Ha & Rhee): leave slow start once an ACK train spans half the minimum RTT
+    // or the round's minimum RTT rises above the previous round's by a clamped threshold.
+    private static final int HYSTART_LOW_WINDOW = 16; // Only probe once cwnd is this large
+    private static final int HYSTART_MIN_SAMPLES = 8; // RTT samples per round for the delay test
+    private static final long HYSTART_ACK_DELTA_NS = TimeUnit.MILLISECONDS.toNanos(2);
+    private static final long HYSTART_DELAY_MIN_NS = TimeUnit.MILLISECONDS.toNanos(4);
+    private static final long HYSTART_DELAY_MAX_NS = TimeUnit.MILLISECONDS.toNanos(16);
+    private boolean hystart = false;
+
+    // TCP Vegas (Brakmo & Peterson): keep between VEGAS_ALPHA and VEGAS_BETA packets queued,
+    // estimated as cwnd * (1 - baseRTT / srtt). Slow start ends once VEGAS_GAMMA are queued.
+    private static final double VEGAS_ALPHA = 2;
+    private static final double VEGAS_BETA = 4;
+    private static final double VEGAS_GAMMA = 1;
+
+    // Queueing delay (RTT sample minus the minimum RTT) accumulated for the stats line
+    private double queueDelaySum = 0;
+    private long queueDelayMax = 0;
+    private int queueDelaySamples = 0;
+    private long minRtt = Long.MAX_VALUE; // Lowest RTT sample seen on the connection
+    private long lastRoundMinRtt = Long.MAX_VALUE;
+    private long currRoundMinRtt = Long.MAX_VALUE;
+    private int roundSamples = 0;
+    private long trainStart = 0; // Arrival of the first ACK in the current round, 0 if none yet
+    private long lastTrainAck = 0;
+
     // Duplicate ACK Tracking
     private volatile int lastAck = 0;
     private volatile int dupAckCount = 0;
@@ -67,6 +215,74 @@ public class Client {
     private final ScheduledExecutorService sched = Executors.newSingleThreadScheduledExecutor();
     private ScheduledFuture<?> timerHandle;
     private volatile boolean fastRetransmitOccurred = false;
+    private volatile boolean connectionLost = false;
+
+    // Forward Error Correction: after every fecBlock data packets, send k XOR parity packets where
+    // parity j covers the block's packets j, j + k, j + 2k, ... so the server can rebuild one loss
+    // per group. k is fixed by fecParity or, when that is 0, follows the observed loss rate.
+    private int fecBlock = 0; // 0 = FEC off
+    private int fecParity = 0; // 0 = adaptive
+    private byte[][] parityData;
+    private int[] parityLenXor;
+    private int parityMaxLen;
+    private byte[] parityFrame;
+    private int blockK;
+    private boolean fecBlockOpen = false;
+    private int parityPacketsSent = 0;
+    private int recoveredByFec = 0;
+    private int dataPacketsSent = 0;
+    private int totalPkts;
+    private long startBytes = -1; // File bytes the server already had on first connect, > 0 when resuming
+
+    // Chunk size: requested in the handshake, capped by the server. With probing on, a padded
+    // probe one size up the ladder rides along each round (PLPMTUD, RFC 8899); once one is ACKed
+    // the transfer reconnects with that size and resumes. PROBE_TRIES silent probes make that
+    // size the ceiling, and BLACK_HOLE_TIMEOUTS timeouts in a row step back down a rung.
+    private static final int[] PROBE_SIZES = {1024, 8192, 8979, 64 * 1024}; // 8979 fills a 9000-byte jumbo frame
+    private static final int PROBE_TRIES = 3;
+    private static final int BLACK_HOLE_TIMEOUTS = 3;
+    private int chunkSize = CHUNK_SIZE;
+    private int maxChunkSize = CHUNK_SIZE; // Server's limit, learned in the handshake
+    private boolean probe = false;
+    private int probeCeiling = Integer.MAX_VALUE; // Smallest size known not to get through
+    private int probeSize = 0; // Size of the outstanding probe, 0 if none
+    private int probeTries = 0;
+    private volatile boolean probeAcked = false;
+    private byte[] probeFrame;
+    private int consecutiveTimeouts = 0;
+
+    // Compression: chunks are deflated on a worker pool up to COMPRESS_AHEAD packets ahead of
+    // nextSeq; a chunk that does not shrink is sent raw, so incompressible data costs nothing extra.
+    private static final int COMPRESS_AHEAD = 256;
+    private static final ThreadLocal<Deflater> DEFLATERS =
+            ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED, true));
+    private boolean compress = false;
+    private ExecutorService compressor;
+    private Future<byte[]>[] compressed;
+    private int compressSubmitted = 0; // Highest seq handed to the pool
+    private long wirePayloadBytes = 0;
+    private long rawPayloadBytes = 0;
+
+    // ECN (RFC 3168): an echoed mark cuts cwnd like a loss would, at most once per window of
+    // data, but nothing needs resending because the marked packet was delivered.
+    private boolean ecn = false;
+    private int ecnRecover = 0; // Marks on packets up to this seq belong to the last reduction
+    private int ecnEchoes = 0;
+    private int ecnReductions = 0;
+
+    // Integrity: CRC32C per frame (intrinsified by the JIT) and a SHA-256 of the file sent after EOF
+    private final CRC32C crc = new CRC32C();
+    private final ByteBuffer frameHeader = ByteBuffer.allocate(17);
+    private byte[] fileDigest;
+    private String transferId; // Set with fileDigest, see transferId()
+    private volatile Boolean digestVerified; // Server's verdict, null until it arrives
+
+    // Transfer statistics
+    private int packetsSent = 0;
+    private int retransmissions = 0;
+    private PrintStream log = System.out;
+    private TraceWriter trace; // null unless --trace is given
+    private int connId; // Local port of the current connection, the trace's connection ID
 
     public Client(String host, int port, Path file, Mode mode) {
         this.host = host;
@@ -75,74 +291,449 @@ public class Client {
         this.mode = mode;
     }
 
+    /** Sends {@code data} under {@code fileName} without reading it from disk, e.g. for generated load. */
+    public Client(String host, int port, String fileName, byte[] data, Mode mode) {
+        this(host, port, Paths.get(fileName), mode);
+        this.fileBytes = data;
+    }
+
+    /** Records every send, ACK, loss event and cwnd change of this client into {@code trace}. */
+    public void setTrace(TraceWriter trace) {
+        this.trace = trace;
+    }
+
+    /** Drops the per-round and per-ACK trace, for running many clients in one JVM. */
+    public void setQuiet(boolean quiet) {
+        this.log = quiet ? new PrintStream(OutputStream.nullOutputStream()) : System.out;
+    }
+
+    /** True once every packet was ACKed and the server confirmed the file digest. */
+    public boolean isVerified() {
+        return base > totalPkts && Boolean.TRUE.equals(digestVerified);
+    }
+
+    public long getFileSize() {
+        return fileBytes == null ? 0 : fileBytes.length;
+    }
+
+    public int getPacketsSent() {
+        return packetsSent;
+    }
+
+    public int getRetransmissions() {
+        return retransmissions;
+    }
+
+    /** Overrides INITIAL_SSTHRESH, e.g. to let slow start run long enough for HyStart to matter. */
+    public void setInitialSsthresh(int initialSsthresh) {
+        this.ssthresh = initialSsthresh;
+    }
+
+    /** Exits slow start early on HyStart's ACK-train or delay-increase signal. */
+    public void setHyStart(boolean hystart) {
+        this.hystart = hystart;
+    }
+
+    /**
+     * Sends {@code parity} XOR parity packets after every {@code block} data packets; a parity of 0
+     * adapts the count to the loss rate seen so far (retransmissions plus FEC recoveries).
+     */
+    public void setFec(int block, int parity) {
+        this.fecBlock = block;
+        this.fecParity = parity;
+        allocateParity();
+    }
+
+    private void allocateParity() {
+        this.parityData = new byte[Math.max(fecBlock / 2, 1)][chunkSize + 1];
+        this.parityLenXor = new int[parityData.length];
+        this.parityFrame = new byte[16 + chunkSize + 1];
+    }
+
+    /** Chunk size to ask the server for; it may agree to less. */
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+        if (fecBlock > 0) {
+            allocateParity();
+        }
+    }
+
+    /** Probes for larger chunk sizes during the transfer and switches up to the ones that get through. */
+    public void setProbe(boolean probe) {
+        this.probe = probe;
+    }
+
+    /** Deflates chunks in parallel and sends the ones that shrink with FLAG_COMPRESSED. */
+    public void setCompression(boolean compress) {
+        this.compress = compress;
+    }
+
+    /** Marks packets ECN-capable, so a congested server queue marks them instead of dropping them. */
+    public void setEcn(boolean ecn) {
+        this.ecn = ecn;
+    }
+
+    /** Tenant the server's fair scheduler weights this upload by. */
+    public void setTenant(String tenant) {
+        this.tenant = tenant;
+    }
+
+    /** Spreads each round's burst over one smoothed RTT instead of sending it back to back. */
+    public void setPacing(boolean pacing) {
+        this.pacing = pacing;
+    }
+
     public void run() throws IOException, InterruptedException {
-        connect();
-        sendFileName();
+        totalPkts = sliceFile();
+        if (compress) {
+            compressor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+                Thread t = new Thread(r, "compressor");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        long startTime = System.nanoTime();
 
-        List<Packet> allPackets = sliceFile();
-        int totalPkts = allPackets.size();
+        // A dropped connection is resumed from where the server's durable record says it stopped;
+        // so is a deliberate reconnect to change the chunk size, which is not a failure
+        long backoff = RECONNECT_BACKOFF_MS;
+        int failures = 0;
+        try {
+            while (true) {
+                try {
+                    if (transfer()) break;
+                    closeConnection();
+                } catch (IOException e) {
+                    if (failures++ >= MAX_RECONNECTS) throw e;
+                    log.printf("[Client] Connection lost (%s); reconnecting in %d ms...%n", e.getMessage(), backoff);
+                    closeConnection();
+                    Thread.sleep(backoff);
+                    backoff *= 2;
+                }
+            }
+        } finally {
+            cleanup();
+        }
+        printStats(startTime);
+        if (base <= totalPkts) {
+            log.println("[Client] Transfer incomplete; run again to resume where the server stopped.");
+        } else if (digestVerified != null) {
+            log.println("[Client] Server " + (digestVerified ? "verified" : "REJECTED") + " the file digest.");
+        } else {
+            throw new IOException("File sent, but the server gave no digest verdict within " + VERDICT_TIMEOUT_MS + " ms");
+        }
+        log.println("[Client] Connection closed.");
+    }
 
+    /** Runs one connection; returns false if it ended early to reconnect with another chunk size. */
+    private boolean transfer() throws IOException, InterruptedException {
+        connect();
+        int resumeFrom = handshake();
+        resetWindow(resumeFrom);
+        if (resumeFrom > 1) {
+            log.printf("[Client] Server already has packets 1..%d, resuming from pkt%d%n", resumeFrom - 1, resumeFrom);
+        }
+
+        connectionLost = false;
+        digestVerified = null; // Only this session's verdict counts
         Thread ackThread = new Thread(this::ackReceiver, "ack-receiver");
         ackThread.start();
 
-        System.out.println("\n== TCP " + mode.name() + " Mode ==");
+        log.println("\n== TCP " + mode.name() + " Mode" + (pacing ? " (paced)" : "") + ", " + chunkSize + "-byte chunks ==");
 
-        for (int round = 1; round <= N_ROUNDS && base <= totalPkts; round++) {
-            System.out.printf("\nRound %d: cwnd = %d, ssthresh = %d%n", round, cwnd, ssthresh);
+        boolean resized = false;
+        for (int round = 1; round <= N_ROUNDS && base <= totalPkts && !resized; round++) {
+            if (connectionLost) throw new IOException("server closed the connection");
+            log.printf("\nRound %d: cwnd = %d, ssthresh = %d%n", round, cwnd, ssthresh);
+            trace(TraceWriter.CWND, 0, cwnd, ssthresh);
             fastRetransmitOccurred = false;
+            if (hystart && cwnd < ssthresh) {
+                hystartNewRound();
+            }
 
             // Send a burst of packets up to the congestion window size
             int packetsSentThisRound = 0;
             StringJoiner sentPacketNames = new StringJoiner(", ");
-            while ((nextSeq - base) < cwnd && nextSeq <= totalPkts) {
-                Packet p = allPackets.get(nextSeq - 1);
-                transmit(p, false);
-                sentPacketNames.add("pkt" + p.seq);
+            int window = Math.min(cwnd, rwnd);
+            if (window < cwnd) {
+                log.printf("Receiver window limits the burst to %d packets%n", window);
+            }
+            if (pacing) {
+                pacer.setRate(window, estRtt);
+            }
+            while ((nextSeq - base) < window && nextSeq <= totalPkts) {
+                if (pacing) {
+                    pacer.acquire();
+                }
+                sendNew(nextSeq);
+                sentPacketNames.add("pkt" + nextSeq);
                 nextSeq++;
                 packetsSentThisRound++;
             }
             if (packetsSentThisRound > 0) {
-                System.out.println("Sent packets: " + sentPacketNames);
+                log.println("Sent packets: " + sentPacketNames);
             } else {
-                 System.out.println("Window full or file sent, waiting for ACKs...");
+                 log.println("Window full or file sent, waiting for ACKs...");
+            }
+            if (probe) {
+                sendProbe();
             }
 
             // Wait for ACKs. A simple sleep is sufficient for this simulation.
-            Thread.sleep(rto + 50);
+            Thread.sleep(TimeUnit.NANOSECONDS.toMillis(rto) + 50);
+            if (probe) {
+                resized = checkProbe();
+            }
 
             // After waiting, update cwnd for the next round if no loss was detected.
             // Loss events (timeout/fast retransmit) handle their own cwnd updates.
             if (!fastRetransmitOccurred) {
-                if (cwnd < ssthresh) {
+                if (mode == Mode.VEGAS && rttSampled) {
+                    vegasUpdate();
+                } else if (cwnd < ssthresh) {
                     // Slow Start: double cwnd
                     cwnd *= 2;
-                    System.out.printf("Slow Start: cwnd -> %d%n", cwnd);
+                    log.printf("Slow Start: cwnd -> %d%n", cwnd);
                 } else {
                     // Congestion Avoidance: increment cwnd
                     cwnd += 1;
-                    System.out.printf("Congestion Avoidance: cwnd -> %d%n", cwnd);
+                    log.printf("Congestion Avoidance: cwnd -> %d%n", cwnd);
                 }
             }
         }
 
-        System.out.println("\n[Client] " + (base > totalPkts ? "File completely sent." : N_ROUNDS + " rounds finished."));
+        log.println("\n[Client] " + (base > totalPkts ? "File completely sent."
+                : resized ? "Ending session to switch to " + chunkSize + "-byte chunks." : N_ROUNDS + " rounds finished."));
         out.writeInt(-1); // Send EOF sentinel
+        out.write(fileDigest); // followed by the whole-file digest for the server to check
         out.flush();
 
-        ackThread.join(1000);
-        cleanup();
-        System.out.println("[Client] Connection closed.");
+        // The reader ends with the verdict or a lost connection. The server hashes the whole file
+        // before it answers, far longer than an RTO on a big file, so only a hung server hits the bound.
+        ackThread.join(VERDICT_TIMEOUT_MS);
+        closeConnection();
+        return !resized;
+    }
+
+    /** Sends a padded probe one rung up the ladder, if there is a rung left to try. */
+    private synchronized void sendProbe() throws IOException {
+        if (probeSize == 0) {
+            for (int size : PROBE_SIZES) {
+                if (size > chunkSize && size < probeCeiling && size <= maxChunkSize) {
+                    probeSize = size;
+                    probeTries = 0;
+                    break;
+                }
+            }
+            if (probeSize == 0) return; // Already at the largest size the path allows
+            if (probeFrame == null || probeFrame.length < probeSize) {
+                probeFrame = new byte[probeSize];
+            }
+        }
+        probeAcked = false;
+        byte flags = ecn ? (byte) (FLAG_PROBE | FLAG_ECT) : FLAG_PROBE;
+        writeFrame(base, System.nanoTime(), flags, probeFrame, probeSize);
+        trace(TraceWriter.SEND, base, probeSize, flags);
+        log.printf("Probing %d-byte chunks (try %d of %d)%n", probeSize, probeTries + 1, PROBE_TRIES);
+    }
+
+    /**
+     * Settles the round's probe and watches for a black hole; returns true if the chunk size
+     * changed and the connection should be re-established with it.
+     */
+    private synchronized boolean checkProbe() {
+        if (base > totalPkts) return false; // Nothing left that a bigger chunk would speed up
+        if (chunkSize > CHUNK_SIZE && consecutiveTimeouts >= BLACK_HOLE_TIMEOUTS) {
+            probeCeiling = chunkSize;
+            int lower = CHUNK_SIZE;
+            for (int size : PROBE_SIZES) {
+                if (size < chunkSize) lower = size;
+            }
+            log.printf("==> %d timeouts in a row at %d-byte chunks: path black hole, backing off to %d%n",
+                    consecutiveTimeouts, chunkSize, lower);
+            chunkSize = lower;
+            probeSize = 0;
+            return true;
+        }
+        if (probeSize == 0) return false;
+        if (probeAcked) {
+            log.printf("==> %d-byte probe got through, switching chunk size up from %d%n", probeSize, chunkSize);
+            chunkSize = probeSize;
+            probeSize = 0;
+            return true;
+        }
+        if (++probeTries >= PROBE_TRIES) {
+            log.printf("==> %d-byte probe lost %d times, staying at %d-byte chunks%n", probeSize, PROBE_TRIES, chunkSize);
+            probeCeiling = probeSize;
+            probeSize = 0;
+        }
+        return false;
+    }
+
+    /** Starts the sliding window over at {@code resumeFrom} for a fresh connection. */
+    private synchronized void resetWindow(int resumeFrom) {
+        cancelTimer();
+        if (startBytes < 0) startBytes = bytesBefore(resumeFrom);
+        base = nextSeq = resumeFrom;
+        lastAck = resumeFrom - 1;
+        dupAckCount = 0;
+        cwnd = 1;
+        rwnd = Integer.MAX_VALUE; // Until the new connection's first ACK says otherwise
+        sendBuffer.reset(resumeFrom);
+        ecnRecover = 0;
+        fecBlockOpen = false; // A block cut by the reconnect can't be covered by parity
+        probeSize = 0;
+        consecutiveTimeouts = 0;
+    }
+
+    /** Re-slices the file for the chunk size the server agreed to, if it differs from the current one. */
+    private synchronized void applyChunkSize(int agreed) {
+        if (agreed == chunkSize && agreed == sendBuffer.chunkSize) return;
+        if (agreed != chunkSize) {
+            log.printf("[Client] Server caps chunks at %d bytes (asked for %d)%n", agreed, chunkSize);
+        }
+        chunkSize = agreed;
+        totalPkts = (fileBytes.length + chunkSize - 1) / chunkSize;
+        sendBuffer = new SendBuffer(INITIAL_SSTHRESH * 2, chunkSize);
+        if (fecBlock > 0) {
+            allocateParity();
+        }
+        compressed = null; // Precomputed chunks have the old boundaries
+        compressSubmitted = 0;
+        log.printf("[Client] Sending %d-byte chunks: %d packets%n", chunkSize, totalPkts);
+    }
+
+    private synchronized void sendNew(int seq) throws IOException {
+        Packet p = sendBuffer.add(seq);
+        int pos = (seq - 1) * chunkSize;
+        int rawLen = Math.min(chunkSize, fileBytes.length - pos);
+        byte[] deflated = compress ? compressedChunk(seq) : null;
+        if (deflated != null) {
+            p.len = deflated.length;
+            p.flags = FLAG_COMPRESSED;
+            System.arraycopy(deflated, 0, p.data, 0, p.len);
+        } else {
+            p.len = rawLen;
+            System.arraycopy(fileBytes, pos, p.data, 0, p.len);
+        }
+        if (ecn) {
+            p.flags |= FLAG_ECT;
+        }
+        wirePayloadBytes += p.len;
+        rawPayloadBytes += rawLen;
+        transmit(p, false);
+        dataPacketsSent++;
+
+        if (fecBlock > 0) {
+            int blockStart = ((seq - 1) / fecBlock) * fecBlock + 1;
+            if (seq == blockStart) {
+                startFecBlock();
+                fecBlockOpen = true;
+            }
+            if (!fecBlockOpen) return;
+            int j = (seq - blockStart) % blockK;
+            byte[] parity = parityData[j];
+            parity[0] ^= p.flags; // Parity covers the flags byte followed by the payload
+            for (int i = 0; i < p.len; i++) parity[i + 1] ^= p.data[i];
+            parityLenXor[j] ^= p.len;
+            parityMaxLen = Math.max(parityMaxLen, p.len + 1);
+            if (seq == blockStart + fecBlock - 1 || seq == totalPkts) {
+                for (j = 0; j < Math.min(blockK, seq - blockStart + 1); j++) {
+                    transmitParity(blockStart, seq - blockStart + 1, j);
+                }
+            }
+        }
+    }
+
+    /** Returns the deflated chunk for {@code seq}, or null if it did not shrink. */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private byte[] compressedChunk(int seq) throws IOException {
+        if (compressed == null) {
+            compressed = new Future[totalPkts + 1];
+        }
+        compressSubmitted = Math.max(compressSubmitted, seq - 1); // Skip what a resumed server already has
+        while (compressSubmitted < Math.min(seq + COMPRESS_AHEAD, totalPkts)) {
+            int s = ++compressSubmitted;
+            int size = chunkSize; // Tasks still queued after a resize must keep the old boundaries
+            compressed[s] = compressor.submit(() -> deflateChunk(s, size));
+        }
+        Future<byte[]> f = compressed[seq];
+        if (f == null) return null; // Already sent once; retransmits reuse the send buffer copy
+        compressed[seq] = null;
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Compression failed", e.getCause());
+        }
+    }
+
+    private byte[] deflateChunk(int seq, int chunkSize) {
+        int pos = (seq - 1) * chunkSize;
+        int len = Math.min(chunkSize, fileBytes.length - pos);
+        Deflater deflater = DEFLATERS.get();
+        deflater.reset();
+        deflater.setInput(fileBytes, pos, len);
+        deflater.finish();
+        byte[] buf = new byte[len - 1]; // Anything that doesn't fit is not worth sending compressed
+        int n = 0;
+        while (!deflater.finished() && n < buf.length) {
+            n += deflater.deflate(buf, n, buf.length - n);
+        }
+        return deflater.finished() ? Arrays.copyOf(buf, n) : null;
+    }
+
+    private void startFecBlock() {
+        if (fecParity > 0) {
+            blockK = Math.min(fecParity, parityData.length);
+        } else {
+            double lossRate = dataPacketsSent == 0 ? 0 : (double) (retransmissions + recoveredByFec) / dataPacketsSent;
+            blockK = Math.max(1, Math.min((int) Math.ceil(2 * fecBlock * lossRate), parityData.length));
+        }
+        for (int j = 0; j < blockK; j++) {
+            Arrays.fill(parityData[j], (byte) 0);
+            parityLenXor[j] = 0;
+        }
+        parityMaxLen = 0;
+    }
+
+    private void transmitParity(int blockStart, int blockLen, int j) throws IOException {
+        ByteBuffer payload = ByteBuffer.wrap(parityFrame);
+        payload.putInt(blockLen).putInt(blockK).putInt(j).putInt(parityLenXor[j]);
+        payload.put(parityData[j], 0, parityMaxLen);
+        byte flags = ecn ? (byte) (FLAG_PARITY | FLAG_ECT) : FLAG_PARITY;
+        writeFrame(blockStart, System.nanoTime(), flags, parityFrame, payload.position());
+        trace(TraceWriter.SEND, blockStart, payload.position(), flags);
+        parityPacketsSent++;
+    }
+
+    /** Writes one seq|ts|flags|len|crc|data frame; the CRC32C covers the header fields and the data. */
+    private void writeFrame(int seq, long ts, byte flags, byte[] data, int len) throws IOException {
+        frameHeader.clear();
+        frameHeader.putInt(seq).putLong(ts).put(flags).putInt(len).flip();
+        crc.reset();
+        crc.update(frameHeader);
+        crc.update(data, 0, len);
+        out.write(frameHeader.array(), 0, frameHeader.limit());
+        out.writeInt((int) crc.getValue());
+        out.write(data, 0, len);
+        out.flush();
     }
 
     private synchronized void transmit(Packet p, boolean isRetrans) throws IOException {
         if (p == null) return;
-        out.writeInt(p.seq);
-        out.writeInt(p.data.length);
-        out.write(p.data);
-        out.flush();
+        long now = System.nanoTime(); // Timestamp value, echoed back by the server in the ACK
+        writeFrame(p.seq, now, p.flags, p.data, p.len);
+        trace(isRetrans ? TraceWriter.RETRANSMIT : TraceWriter.SEND, p.seq, p.len, p.flags);
 
-        if (!isRetrans) {
-            p.sendTime = System.currentTimeMillis();
+        packetsSent++;
+        if (isRetrans) {
+            p.retransmitted = true;
+            retransmissions++;
+        } else {
+            p.sendTime = now;
         }
 
         if (p.seq == base) {
@@ -154,57 +745,98 @@ public class Client {
         try {
             while (!Thread.currentThread().isInterrupted()) {
                 int ack = in.readInt();
-                if (ack == -1) break; // Server closed connection
-                handleAck(ack);
+                if (ack == -1) { // Server closed the session and reports the digest check
+                    digestVerified = in.readBoolean();
+                    break;
+                }
+                long tsEcho = in.readLong();
+                byte flags = in.readByte();
+                rwnd = Math.max(in.readInt(), 1);
+                if ((flags & ACK_PROBE) != 0) {
+                    probeAcked = true; // Repeats the cumulative ACK, so it must not count as a duplicate
+                    continue;
+                }
+                handleAck(ack, tsEcho, flags);
             }
         } catch (IOException e) {
-            // Socket closed, thread will exit.
+            // Socket closed, thread will exit and the send loop reconnects.
+            connectionLost = true;
         }
     }
 
-    private synchronized void handleAck(int ack) {
-        System.out.printf("Received: ACK:pkt%d%n", ack);
+    private synchronized void handleAck(int ack, long tsEcho, byte flags) {
+        log.printf("Received: ACK:pkt%d%s%n", ack, (flags & ACK_RECOVERED) != 0 ? " (FEC recovered)" : "");
+        if ((flags & ACK_RECOVERED) != 0) {
+            recoveredByFec++;
+        }
 
-        if (ack < base) {
-            return; // Ignore old ACKs
+        trace(TraceWriter.ACK, ack, ack < base ? 0 : (int) (bytesBefore(ack + 1) - bytesBefore(base)), flags);
+        if ((flags & ACK_ECE) != 0) {
+            ecnEcho();
         }
 
+        // A duplicate repeats lastAck == base - 1, so it must be counted before old ACKs are dropped
         if (ack == lastAck) {
             dupAckCount++;
             if (dupAckCount == 3) {
-                System.out.println("==> 3 Duplicate ACKs: Fast Retransmit triggered.");
+                log.println("==> 3 Duplicate ACKs: Fast Retransmit triggered.");
+                trace(TraceWriter.FAST_RETRANSMIT, base, cwnd, 0);
                 fastRetransmitOccurred = true;
                 ssthresh = Math.max(cwnd / 2, 2);
 
                 if (mode == Mode.TAHOE) {
                     cwnd = 1;
-                    System.out.printf("TCP TAHOE Reset: cwnd -> 1, ssthresh -> %d%n", ssthresh);
-                } else { // RENO
+                    log.printf("TCP TAHOE Reset: cwnd -> 1, ssthresh -> %d%n", ssthresh);
+                } else { // RENO, and VEGAS which handles loss the same way
                     cwnd = ssthresh;
-                    System.out.printf("TCP RENO Fast Recovery: cwnd -> %d, ssthresh -> %d%n", cwnd, ssthresh);
+                    log.printf("TCP %s Fast Recovery: cwnd -> %d, ssthresh -> %d%n", mode.name(), cwnd, ssthresh);
                 }
+                trace(TraceWriter.CWND, 0, cwnd, ssthresh);
 
                 try {
-                    transmit(sentPackets.get(base), true);
+                    transmit(sendBuffer.get(base), true);
                 } catch (IOException ignored) {}
                 dupAckCount = 0; // Reset after handling
             }
             return;
         }
 
+        if (ack < base) {
+            return; // Ignore old ACKs
+        }
+
         if (ack > lastAck) {
             // New ACK
             dupAckCount = 0;
+            consecutiveTimeouts = 0;
             lastAck = ack;
 
-            Packet p = sentPackets.get(ack);
-            if (p != null) {
-                long sample = System.currentTimeMillis() - p.sendTime;
+            // Karn's rule: skip the sample if any newly covered packet was retransmitted,
+            // the echoed timestamp then may belong to either transmission.
+            boolean ambiguous = false;
+            for (int seq = base; seq <= ack; seq++) {
+                Packet p = sendBuffer.get(seq);
+                if (p != null && p.retransmitted) {
+                    ambiguous = true;
+                    break;
+                }
+            }
+            long now = System.nanoTime();
+            if (!ambiguous) {
+                long sample = now - tsEcho;
                 updateRtt(sample);
+                minRtt = Math.min(minRtt, sample);
+                long queueDelay = sample - minRtt;
+                queueDelaySum += queueDelay;
+                queueDelayMax = Math.max(queueDelayMax, queueDelay);
+                queueDelaySamples++;
+                if (hystart && cwnd < ssthresh) {
+                    hystartUpdate(now, sample);
+                }
             }
 
             base = ack + 1;
-            sentPackets.keySet().removeIf(seq -> seq <= ack);
+            sendBuffer.release(ack);
 
             if (base == nextSeq) {
                 cancelTimer();
@@ -214,15 +846,99 @@ public class Client {
         }
     }
 
+    /** Reacts to an ECN echo like fast retransmit does to a loss, minus the retransmission. */
+    private void ecnEcho() {
+        ecnEchoes++;
+        if (base <= ecnRecover) {
+            return; // Already reduced for this window
+        }
+        ecnRecover = nextSeq - 1;
+        ecnReductions++;
+        fastRetransmitOccurred = true; // Keeps the round from growing cwnd again
+        ssthresh = Math.max(cwnd / 2, 2);
+        cwnd = mode == Mode.TAHOE ? 1 : ssthresh;
+        log.printf("==> ECN echo: TCP %s cwnd -> %d, ssthresh -> %d (no retransmission)%n", mode.name(), cwnd, ssthresh);
+        trace(TraceWriter.CWND, 0, cwnd, ssthresh);
+    }
+
+    private synchronized void vegasUpdate() {
+        double queued = cwnd * (1 - minRtt / estRtt);
+        if (cwnd < ssthresh) {
+            if (queued > VEGAS_GAMMA) {
+                ssthresh = Math.max(cwnd, 2);
+                log.printf("Vegas: %.2f pkts queued, leaving slow start, ssthresh -> %d%n", queued, ssthresh);
+            } else {
+                cwnd *= 2;
+                log.printf("Vegas Slow Start: %.2f pkts queued, cwnd -> %d%n", queued, cwnd);
+            }
+        } else if (queued < VEGAS_ALPHA) {
+            cwnd += 1;
+            log.printf("Vegas: %.2f pkts queued, cwnd -> %d%n", queued, cwnd);
+        } else if (queued > VEGAS_BETA) {
+            cwnd = Math.max(cwnd - 1, 2);
+            log.printf("Vegas: %.2f pkts queued, cwnd -> %d%n", queued, cwnd);
+        } else {
+            log.printf("Vegas: %.2f pkts queued, cwnd held at %d%n", queued, cwnd);
+        }
+    }
+
+    private synchronized void hystartNewRound() {
+        lastRoundMinRtt = currRoundMinRtt;
+        currRoundMinRtt = Long.MAX_VALUE;
+        roundSamples = 0;
+        trainStart = 0;
+    }
+
+    private void hystartUpdate(long now, long sample) {
+        if (cwnd < HYSTART_LOW_WINDOW) return;
+
+        // ACK train: closely spaced ACKs spanning half the min RTT mean the pipe is full
+        if (trainStart == 0) {
+            trainStart = lastTrainAck = now;
+        } else if (now - lastTrainAck <= HYSTART_ACK_DELTA_NS) {
+            lastTrainAck = now;
+            if (now - trainStart >= minRtt / 2) {
+                hystartExit("ACK train", now - trainStart);
+                return;
+            }
+        }
+
+        // Delay increase: queueing shows up as a higher minimum RTT than last round
+        if (roundSamples < HYSTART_MIN_SAMPLES) {
+            currRoundMinRtt = Math.min(currRoundMinRtt, sample);
+            roundSamples++;
+            if (roundSamples == Math.min(HYSTART_MIN_SAMPLES, cwnd) && lastRoundMinRtt != Long.MAX_VALUE) {
+                long eta = Math.max(HYSTART_DELAY_MIN_NS, Math.min(lastRoundMinRtt / 8, HYSTART_DELAY_MAX_NS));
+                if (currRoundMinRtt >= lastRoundMinRtt + eta) {
+                    hystartExit("delay increase", currRoundMinRtt - lastRoundMinRtt);
+                }
+            }
+        }
+    }
+
+    private void hystartExit(String signal, long nanos) {
+        ssthresh = cwnd;
+        log.printf("HyStart (%s, %.3fms): leaving slow start, ssthresh -> %d%n", signal, nanos / 1e6, ssthresh);
+    }
+
     private void updateRtt(long sample) {
-        estRtt = (1 - ALPHA) * estRtt + ALPHA * sample;
-        devRtt = (1 - BETA) * devRtt + BETA * Math.abs(sample - estRtt);
-        rto = Math.min((long) (estRtt + 4 * devRtt), MAX_TIMEOUT_MS);
+        if (!rttSampled) {
+            // First measurement seeds the estimator (RFC 6298) instead of decaying from INITIAL_RTO_MS
+            estRtt = sample;
+            devRtt = sample / 2.0;
+            rttSampled = true;
+        } else {
+            estRtt = (1 - ALPHA) * estRtt + ALPHA * sample;
+            devRtt = (1 - BETA) * devRtt + BETA * Math.abs(sample - estRtt);
+        }
+        long minRto = TimeUnit.MILLISECONDS.toNanos(MIN_RTO_MS);
+        long maxRto = TimeUnit.MILLISECONDS.toNanos(MAX_TIMEOUT_MS);
+        rto = Math.min(Math.max((long) (estRtt + 4 * devRtt), minRto), maxRto);
     }
 
     private void startTimer() {
         cancelTimer();
-        timerHandle = sched.schedule(this::timeout, rto, TimeUnit.MILLISECONDS);
+        timerHandle = sched.schedule(this::timeout, rto, TimeUnit.NANOSECONDS);
     }
 
     private void cancelTimer() {
@@ -232,69 +948,201 @@ public class Client {
     }
 
     private synchronized void timeout() {
-        System.out.println("Timeout! Retransmitting Packet " + base);
+        log.println("Timeout! Retransmitting Packet " + base);
+        trace(TraceWriter.TIMEOUT, base, (int) TimeUnit.NANOSECONDS.toMicros(rto), 0);
         fastRetransmitOccurred = true;
-        
+        consecutiveTimeouts++;
+
         // Both Tahoe and Reno reset on timeout
         ssthresh = Math.max(cwnd / 2, 2);
         cwnd = 1;
         dupAckCount = 0;
-        System.out.printf("TCP %s Timeout Reset: cwnd -> 1, ssthresh -> %d%n", mode.name(), ssthresh);
+        log.printf("TCP %s Timeout Reset: cwnd -> 1, ssthresh -> %d%n", mode.name(), ssthresh);
+        trace(TraceWriter.CWND, 0, cwnd, ssthresh);
 
         try {
-            rto = Math.min(rto * 2, MAX_TIMEOUT_MS); // Exponential back-off
-            transmit(sentPackets.get(base), true);
+            rto = Math.min(rto * 2, TimeUnit.MILLISECONDS.toNanos(MAX_TIMEOUT_MS)); // Exponential back-off
+            transmit(sendBuffer.get(base), true);
         } catch (IOException e) {
             System.err.println("Retransmit failed: " + e.getMessage());
         }
     }
 
+    /** File bytes carried by the packets before {@code seq}. */
+    private long bytesBefore(int seq) {
+        return Math.min((long) (seq - 1) * chunkSize, fileBytes.length);
+    }
+
+    private void trace(byte type, int seq, int a, int b) {
+        if (trace != null) {
+            trace.record(connId, type, seq, a, b);
+        }
+    }
+
+    private synchronized void printStats(long startTime) {
+        double elapsedSec = (System.nanoTime() - startTime) / 1e9;
+        long deliveredBytes = bytesBefore(base) - Math.max(startBytes, 0);
+        log.printf("[Client] Stats: sent=%d retransmitted=%d (%.1f%%) elapsed=%.2fs goodput=%.1f KB/s srtt=%.3fms%n",
+                packetsSent, retransmissions, packetsSent == 0 ? 0.0 : 100.0 * retransmissions / packetsSent,
+                elapsedSec, deliveredBytes / 1024.0 / elapsedSec, estRtt / 1e6);
+        log.printf("[Client] Queueing delay: avg=%.3fms max=%.3fms over %d samples%n",
+                queueDelaySamples == 0 ? 0.0 : queueDelaySum / queueDelaySamples / 1e6, queueDelayMax / 1e6,
+                queueDelaySamples);
+        if (compress) {
+            log.printf("[Client] Compression: %,d wire bytes for %,d file bytes (%.1f%%)%n",
+                    wirePayloadBytes, rawPayloadBytes, rawPayloadBytes == 0 ? 100.0 : 100.0 * wirePayloadBytes / rawPayloadBytes);
+        }
+        if (ecn) {
+            log.printf("[Client] ECN: %d marked packets echoed, %d window reductions, none of them retransmitted%n",
+                    ecnEchoes, ecnReductions);
+        }
+        if (fecBlock > 0) {
+            log.printf("[Client] FEC: block=%d parity sent=%d (%.1f%% overhead) losses rebuilt=%d%n",
+                    fecBlock, parityPacketsSent, dataPacketsSent == 0 ? 0.0 : 100.0 * parityPacketsSent / dataPacketsSent,
+                    recoveredByFec);
+        }
+    }
+
     private void connect() throws IOException {
-        sock = new Socket(host, port);
-        in = new DataInputStream(sock.getInputStream());
-        out = new DataOutputStream(sock.getOutputStream());
-        System.out.println("[Client] Connected to server!");
-        System.out.println("[Client] " + in.readUTF());
+        sock = new Socket();
+        sock.connect(new InetSocketAddress(host, port), HANDSHAKE_TIMEOUT_MS);
+        // A connection the kernel completed but the server never accepted (its listen queue
+        // overflowed) would otherwise wait for the greeting forever.
+        sock.setSoTimeout(HANDSHAKE_TIMEOUT_MS);
+        // Each frame is flushed as one segment; Nagle would otherwise hold it back for the
+        // server's delayed ACK and defeat both pacing and RTT sampling.
+        sock.setTcpNoDelay(true);
+        connId = sock.getLocalPort();
+        trace(TraceWriter.OPEN, 0, 0, 0);
+        in = new DataInputStream(new BufferedInputStream(sock.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(sock.getOutputStream()));
+        log.println("[Client] Connected to server!");
+        String greeting = in.readUTF();
+        log.println("[Client] " + greeting);
+        if (greeting.startsWith("BUSY")) { // Shed by admission control; retried with backoff
+            sock.close();
+            throw new IOException("server busy");
+        }
     }
 
-    private void sendFileName() throws IOException {
+    /**
+     * Sends file name, transfer ID, size, tenant, wanted chunk size and FEC block size; returns
+     * the first seq the server still needs, counted in the chunk size it agreed to.
+     */
+    private int handshake() throws IOException {
         out.writeUTF(file.getFileName().toString());
+        out.writeUTF(transferId());
+        out.writeLong(fileBytes.length);
+        out.writeUTF(tenant);
+        out.writeInt(chunkSize);
+        out.writeBoolean(false); // A new transfer, not a subflow joining one (see MultipathClient)
+        out.writeInt(fecBlock); // 0 tells the server to keep no packets for parity recovery
         out.flush();
+        int resumeFrom = in.readInt();
+        if (resumeFrom < 1) {
+            throw new IOException("Server refused transfer " + transferId() + " (already in progress?)");
+        }
+        int agreed = in.readInt();
+        maxChunkSize = in.readInt();
+        applyChunkSize(agreed);
+        sock.setSoTimeout(0); // From here on the RTO timer detects a silent server
+        return resumeFrom;
+    }
+
+    /**
+     * Derived from the tenant, the file name and the content, so a re-run of the same upload
+     * finds the server's progress record, while another client sending the same bytes under
+     * another name or tenant runs its own transfer instead of being refused as a duplicate.
+     */
+    private String transferId() {
+        return transferId;
     }
 
-    private List<Packet> sliceFile() throws IOException {
-        byte[] allBytes = Files.readAllBytes(file);
-        int seq = 1;
-        List<Packet> packetList = new ArrayList<>();
-        for (int pos = 0; pos < allBytes.length; pos += CHUNK_SIZE, seq++) {
-            int len = Math.min(CHUNK_SIZE, allBytes.length - pos);
-            byte[] chunk = Arrays.copyOfRange(allBytes, pos, pos + len);
-            Packet p = new Packet(seq, chunk);
-            sentPackets.put(seq, p);
-            packetList.add(p);
+    static String transferId(String tenant, String fileName, byte[] fileDigest) throws NoSuchAlgorithmException {
+        MessageDigest id = MessageDigest.getInstance("SHA-256");
+        id.update(tenant.getBytes(StandardCharsets.UTF_8));
+        id.update((byte) 0);
+        id.update(fileName.getBytes(StandardCharsets.UTF_8));
+        id.update((byte) 0);
+        byte[] hash = id.digest(fileDigest);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 16; i++) sb.append(String.format("%02x", hash[i]));
+        return sb.toString();
+    }
+
+    private int sliceFile() throws IOException {
+        if (fileBytes == null) {
+            fileBytes = Files.readAllBytes(file);
+        }
+        try {
+            fileDigest = MessageDigest.getInstance("SHA-256").digest(fileBytes);
+            transferId = transferId(tenant, file.getFileName().toString(), fileDigest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 unavailable", e);
         }
-        System.out.printf("[Client] Prepared %d packets for file '%s' (%,d bytes)%n",
-                packetList.size(), file.getFileName(), allBytes.length);
-        return packetList;
+        int totalPkts = (fileBytes.length + chunkSize - 1) / chunkSize;
+        log.printf("[Client] Prepared %d packets for file '%s' (%,d bytes)%n",
+                totalPkts, file.getFileName(), fileBytes.length);
+        return totalPkts;
     }
 
-    private void cleanup() throws IOException {
+    private synchronized void closeConnection() throws IOException {
         cancelTimer();
-        sched.shutdownNow();
         if (sock != null && !sock.isClosed()) {
             sock.close();
         }
     }
 
+    private void cleanup() throws IOException {
+        closeConnection();
+        sched.shutdownNow();
+        if (compressor != null) {
+            compressor.shutdownNow();
+        }
+    }
+
     public static void main(String[] args) throws Exception {
         Scanner scanner = new Scanner(System.in);
         System.out.println("Select TCP Congestion Control Mode:");
         System.out.println("1. TCP Tahoe");
         System.out.println("2. TCP Reno");
-        System.out.print("Enter choice (1 or 2): ");
+        System.out.println("3. TCP Vegas");
+        System.out.print("Enter choice (1, 2 or 3): ");
         int choice = scanner.nextInt();
-        Mode selectedMode = (choice == 2) ? Mode.RENO : Mode.TAHOE;
+        Mode selectedMode = (choice == 3) ? Mode.VEGAS : (choice == 2) ? Mode.RENO : Mode.TAHOE;
         scanner.close();
+        List<String> options = Arrays.asList(args);
+        boolean pacing = options.contains("--pace");
+        boolean hystart = options.contains("--hystart");
+        boolean compress = options.contains("--compress");
+        boolean ecn = options.contains("--ecn");
+        String traceFile = null;
+        int initialSsthresh = INITIAL_SSTHRESH;
+        int fecBlock = 0;
+        int fecParity = 0;
+        String tenant = "default";
+        int chunkSize = CHUNK_SIZE;
+        for (String option : options) {
+            if (option.startsWith("--ssthresh=")) {
+                initialSsthresh = Integer.parseInt(option.substring("--ssthresh=".length()));
+            } else if (option.equals("--fec")) {
+                fecBlock = 8;
+            } else if (option.startsWith("--fec=")) { // --fec=N (adaptive) or --fec=N:K (fixed)
+                String[] rate = option.substring("--fec=".length()).split(":");
+                fecBlock = Integer.parseInt(rate[0]);
+                fecParity = rate.length > 1 ? Integer.parseInt(rate[1]) : 0;
+            } else if (option.startsWith("--trace=")) {
+                traceFile = option.substring("--trace=".length());
+            } else if (option.startsWith("--tenant=")) {
+                tenant = option.substring("--tenant=".length());
+            } else if (option.startsWith("--chunk=")) {
+                chunkSize = Integer.parseInt(option.substring("--chunk=".length()));
+            }
+        }
+        if (chunkSize < CHUNK_SIZE) {
+            System.out.println("The server's smallest chunk is " + CHUNK_SIZE + " bytes; using that instead of " + chunkSize);
+            chunkSize = CHUNK_SIZE;
+        }
 
         Path file = Paths.get(FILE_TO_SEND);
         if (!Files.exists(file)) {
@@ -304,6 +1152,25 @@ public class Client {
             System.out.println("Created a dummy 150KB file named 'Board.jpeg' for this test run.");
         }
 
-        new Client(HOST, PORT, file, selectedMode).run();
+        Client client = new Client(HOST, PORT, file, selectedMode);
+        client.setPacing(pacing);
+        client.setHyStart(hystart);
+        client.setCompression(compress);
+        client.setEcn(ecn);
+        client.setTenant(tenant);
+        client.setInitialSsthresh(initialSsthresh);
+        client.setChunkSize(chunkSize);
+        client.setProbe(options.contains("--probe"));
+        if (fecBlock > 0) {
+            client.setFec(fecBlock, fecParity);
+        }
+        if (traceFile == null) {
+            client.run();
+            return;
+        }
+        try (TraceWriter trace = new TraceWriter(Paths.get(traceFile))) {
+            client.setTrace(trace);
+            client.run();
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,131 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.zip.CRC32C;
+
+/**
+ * Measures what the CRC32C frame check costs the RDT client: the checksum on its own, then the
+ * client's frame write (seq|ts|flags|len|crc|data, flushed to a loopback socket per frame) with
+ * and without computing it. The overhead is the difference as a share of the unchecked write.
+ * The server does the same CRC work per frame on receive, so its share is of the same order.
+ *
+ * Usage: java FrameChecksumBenchmark [--chunk=N] [--frames=N]
+ *
+ * Frames are written with and without the checksum in alternating passes; the best pass of
+ * each is reported, so a GC or scheduling hiccup in one pass does not decide the result.
+ */
+public class FrameChecksumBenchmark {
+
+    private static final int CHUNK_SIZE = 1024;
+    private static final int FRAMES = 200_000;
+    private static final int ROUNDS = 5; // Passes per variant; the best one is reported
+    private static final int HEADER_SIZE = 17; // seq + tsVal + flags + len, the CRC follows
+
+    private static volatile long blackhole; // Keeps the checksum loop from being optimized away
+
+    private final ByteBuffer frameHeader = ByteBuffer.allocate(HEADER_SIZE);
+    private final CRC32C crc = new CRC32C();
+    private final byte[] data;
+    private final DataOutputStream out;
+
+    private FrameChecksumBenchmark(byte[] data, DataOutputStream out) {
+        this.data = data;
+        this.out = out;
+    }
+
+    /** The client's writeFrame(); without the check the CRC field is sent as 0. */
+    private void writeFrame(int seq, boolean checked) throws IOException {
+        frameHeader.clear();
+        frameHeader.putInt(seq).putLong(System.nanoTime()).put((byte) 0).putInt(data.length).flip();
+        int checksum = 0;
+        if (checked) {
+            crc.reset();
+            crc.update(frameHeader);
+            crc.update(data, 0, data.length);
+            checksum = (int) crc.getValue();
+        }
+        out.write(frameHeader.array(), 0, frameHeader.limit());
+        out.writeInt(checksum);
+        out.write(data, 0, data.length);
+        out.flush();
+    }
+
+    private long checksumOnly(int frames) {
+        long sum = 0;
+        long t0 = System.nanoTime();
+        for (int seq = 1; seq <= frames; seq++) {
+            frameHeader.clear();
+            frameHeader.putInt(seq).putLong(seq).put((byte) 0).putInt(data.length).flip();
+            crc.reset();
+            crc.update(frameHeader);
+            crc.update(data, 0, data.length);
+            sum += crc.getValue();
+        }
+        blackhole = sum;
+        return System.nanoTime() - t0;
+    }
+
+    private long writeFrames(int frames, boolean checked) throws IOException {
+        long t0 = System.nanoTime();
+        for (int seq = 1; seq <= frames; seq++) {
+            writeFrame(seq, checked);
+        }
+        return System.nanoTime() - t0;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int chunkSize = CHUNK_SIZE, frames = FRAMES;
+        for (String arg : args) {
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith("--chunk=")) {
+                chunkSize = Integer.parseInt(value);
+            } else if (arg.startsWith("--frames=")) {
+                frames = Integer.parseInt(value);
+            } else {
+                System.err.println("Unknown option: " + arg);
+                System.exit(1);
+            }
+        }
+        byte[] data = new byte[chunkSize];
+        new Random(1).nextBytes(data);
+
+        try (ServerSocket listener = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            // The receiving end only drains, so the sender measures its own work plus the socket
+            Thread drain = new Thread(() -> {
+                try (Socket peer = listener.accept(); InputStream in = peer.getInputStream()) {
+                    byte[] sink = new byte[1 << 16];
+                    while (in.read(sink) != -1) {
+                    }
+                } catch (IOException ignored) {
+                }
+            }, "drain");
+            drain.setDaemon(true);
+            drain.start();
+
+            try (Socket sock = new Socket(listener.getInetAddress(), listener.getLocalPort())) {
+                sock.setTcpNoDelay(true); // As the client: one segment per frame
+                FrameChecksumBenchmark bench = new FrameChecksumBenchmark(data,
+                        new DataOutputStream(new BufferedOutputStream(sock.getOutputStream())));
+                System.out.printf("%,d frames of %d bytes, best of %d passes%n%n", frames, chunkSize, ROUNDS);
+
+                long crcNs = Long.MAX_VALUE, plainNs = Long.MAX_VALUE, checkedNs = Long.MAX_VALUE;
+                bench.writeFrames(frames / 10, true); // Warm-up for the JIT
+                for (int round = 0; round < ROUNDS; round++) {
+                    crcNs = Math.min(crcNs, bench.checksumOnly(frames));
+                    plainNs = Math.min(plainNs, bench.writeFrames(frames, false));
+                    checkedNs = Math.min(checkedNs, bench.writeFrames(frames, true));
+                }
+                double crcPerFrame = (double) crcNs / frames;
+                double plainPerFrame = (double) plainNs / frames;
+                double checkedPerFrame = (double) checkedNs / frames;
+                System.out.printf("CRC32C alone        %8.1f ns per frame (%.1f GB/s)%n",
+                        crcPerFrame, (chunkSize + HEADER_SIZE) / crcPerFrame);
+                System.out.printf("frame write, no CRC %8.1f ns per frame%n", plainPerFrame);
+                System.out.printf("frame write, CRC32C %8.1f ns per frame%n", checkedPerFrame);
+                System.out.printf("%nOverhead: %.2f%% measured, %.2f%% from the checksum time alone%n",
+                        100.0 * (checkedPerFrame - plainPerFrame) / plainPerFrame, 100.0 * crcPerFrame / plainPerFrame);
+            }
+        }
+    }
+}
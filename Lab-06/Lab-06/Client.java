@@ -1,21 +1,35 @@
 import java.io.*;
 import java.net.*;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Scanner;
 
 public class Client {
     private static final String ip_address = "";
     private static final int portNumb = 3923;
+    private static final int PIPELINED_CHUNK_SIZE = 1024; // Window permitting; stop-and-wait sends rwnd bytes
     public static int chunkSize = 0;
+    public static boolean pipelined = false;
     
     public static void main(String[] args) {
+        for (String arg : args) {
+            if ("--pipelined".equals(arg)) {
+                pipelined = true;
+            } else {
+                System.out.println("Usage: java Client [--pipelined]");
+                return;
+            }
+        }
         try {
             Socket socket = new Socket(ip_address, portNumb);
-            System.out.println("Connected to server at " + ip_address + ":" + portNumb);
+            socket.setTcpNoDelay(true); // Chunks are flushed whole; Nagle would hold them for the last ACK
+            System.out.println("Connected to server at " + ip_address + ":" + portNumb
+                    + (pipelined ? " (pipelined)" : " (stop-and-wait)"));
 
             // Updated IO streams to match server implementation
             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
-            DataOutputStream dataOut = new DataOutputStream(socket.getOutputStream());
+            DataOutputStream dataOut = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
             DataInputStream dataIn = new DataInputStream(socket.getInputStream());
             
             Scanner scanner = new Scanner(System.in);
@@ -25,74 +39,41 @@ public class Client {
                 String serverPrompt = dataIn.readUTF();
                 System.out.println("Server: " + serverPrompt);
                 
+                // Ask again locally for a missing file: once the name is sent the server expects the upload
                 String fileName = scanner.nextLine();
+                File file = new File(fileName);
+                while (!"quit".equalsIgnoreCase(fileName) && !file.exists()) {
+                    System.out.println("File not found: " + fileName);
+                    fileName = scanner.nextLine();
+                    file = new File(fileName);
+                }
                 
                 // Send filename to server
                 dataOut.writeUTF(fileName);
-                dataOut.flush();
                 
                 // Check if user wants to quit
                 if ("quit".equalsIgnoreCase(fileName)) {
+                    dataOut.flush();
                     break;
                 }
+                dataOut.writeBoolean(pipelined);
+                dataOut.flush();
 
-                File file = new File(fileName);
-                if (!file.exists()) {
-                    System.out.println("File not found: " + fileName);
-                    continue; // Continue to next iteration instead of closing
-                }
-
-                FileInputStream fileIn = new FileInputStream(file);
-                int sequenceNumber = 0;
-                int bytesRead;
-
-                while (true) {
-                    int rwnd = dataIn.readInt();
-                    chunkSize = rwnd;
-                    byte[] buffer = new byte[chunkSize];
-                    bytesRead = fileIn.read(buffer);
-                    if(bytesRead == -1) {
-                        // Send end-of-file signal with proper sequence number
-                        dataOut.writeInt(sequenceNumber);
-                        dataOut.writeInt(-1); // End of file marker
-                        dataOut.flush();
-                        break;
-                    }
-                   //seq no. sending
-                    dataOut.writeInt(sequenceNumber);
-                    //chunck size sending
-                    dataOut.writeInt(bytesRead); //size of current chunk
-                    // chunk data sending
-                    dataOut.write(buffer, 0, bytesRead);
-                    dataOut.flush();
-
-                    System.out.println("Sent chunk " + sequenceNumber + " (" + bytesRead + " bytes)");
-
-                    // Waiting for acknowledgment
-                    int ack = dataIn.readInt();
-                    if (ack == sequenceNumber) {
-                        System.out.println("Received ACK for chunk " + ack);
-                        sequenceNumber++;
-                    } else {
-                        System.out.println("Error: Expected ACK " + sequenceNumber + " but received " + ack);
-                        
-                    }
-
-                    int urwnd = dataIn.readInt();
-                    System.out.println("Updated Window Size: " + urwnd);
+                long startTime = System.nanoTime();
+                if (pipelined) {
+                    sendPipelined(file, dataIn, dataOut);
+                } else {
+                    sendStopAndWait(file, dataIn, dataOut);
                 }
+                long elapsedMs = Math.max(1, (System.nanoTime() - startTime) / 1_000_000);
 
-                // Send end-of-file signal
-                dataOut.writeInt(-1);
-                dataOut.flush();
-                
-                fileIn.close();
-                
                 // Wait for server confirmation
                 String serverResponse = dataIn.readUTF();
                 System.out.println("Server: " + serverResponse);
                 
                 System.out.println("File transfer completed for: " + fileName);
+                System.out.printf("Uploaded %d bytes in %d ms (%.1f KB/s)%n",
+                        file.length(), elapsedMs, file.length() / 1024.0 / (elapsedMs / 1000.0));
                 System.out.println("----------------------------------------");
             }
             
@@ -103,4 +84,164 @@ public class Client {
             System.out.println("Error: " + e.getMessage());
         }
     }
+
+    // One chunk of rwnd bytes per round trip: wait for the window, send, wait for the ACK
+    private static void sendStopAndWait(File file, DataInputStream dataIn, DataOutputStream dataOut) throws IOException {
+        FileInputStream fileIn = new FileInputStream(file);
+        int sequenceNumber = 0;
+        int bytesRead;
+
+        while (true) {
+            int rwnd = dataIn.readInt();
+            chunkSize = rwnd;
+            byte[] buffer = new byte[chunkSize];
+            bytesRead = fileIn.read(buffer);
+            if(bytesRead == -1) {
+                // Send end-of-file signal with proper sequence number
+                dataOut.writeInt(sequenceNumber);
+                dataOut.writeInt(-1); // End of file marker
+                dataOut.flush();
+                break;
+            }
+           //seq no. sending
+            dataOut.writeInt(sequenceNumber);
+            //chunck size sending
+            dataOut.writeInt(bytesRead); //size of current chunk
+            // chunk data sending
+            dataOut.write(buffer, 0, bytesRead);
+            dataOut.flush();
+
+            System.out.println("Sent chunk " + sequenceNumber + " (" + bytesRead + " bytes)");
+
+            // Waiting for acknowledgment
+            int ack = dataIn.readInt();
+            if (ack == sequenceNumber) {
+                System.out.println("Received ACK for chunk " + ack);
+                sequenceNumber++;
+            } else {
+                System.out.println("Error: Expected ACK " + sequenceNumber + " but received " + ack);
+                
+            }
+
+            int urwnd = dataIn.readInt();
+            System.out.println("Updated Window Size: " + urwnd);
+        }
+
+        fileIn.close();
+    }
+
+    // --- Pipelined upload: up to the advertised window in flight, ACKs read on their own thread ---
+
+    /** Bytes sent and acknowledged against the receiver's latest advertised window. */
+    private static final class Window {
+        private final Deque<long[]> unacked = new ArrayDeque<>(); // {seq, end offset} per chunk in flight
+        private long sent = 0;
+        private long acked = 0;
+        private int advertised; // Counted from the acknowledged offset, as in TCP
+        private int endSeq = -1; // Seq of the end-of-file marker once it has been sent
+        private boolean failed = false;
+
+        Window(int advertised) {
+            this.advertised = advertised;
+        }
+
+        synchronized boolean fits(int len) {
+            return sent - acked + len <= advertised;
+        }
+
+        /**
+         * Waits until a chunk of up to len bytes fits the window and records it as sent; returns its
+         * length. With nothing in flight a window smaller than len is used whole, so a small window
+         * slows the upload down rather than stalling it.
+         */
+        synchronized int take(int seq, int len) throws IOException, InterruptedException {
+            while (!failed && !fits(len) && !(sent == acked && advertised > 0)) {
+                wait();
+            }
+            if (failed) throw new IOException("Connection lost while waiting for the window to open");
+            if (!fits(len)) len = advertised;
+            sent += len;
+            unacked.add(new long[] {seq, sent});
+            return len;
+        }
+
+        synchronized void ack(int ack, int window) {
+            while (!unacked.isEmpty() && unacked.peek()[0] <= ack) {
+                acked = unacked.poll()[1];
+            }
+            advertised = window;
+            notifyAll();
+        }
+
+        synchronized void end(int seq) {
+            endSeq = seq;
+        }
+
+        /** The server ACKs the end-of-file marker last; window updates never follow it. */
+        synchronized boolean isLast(int ack) {
+            return endSeq >= 0 && ack == endSeq;
+        }
+
+        synchronized void awaitDone(long total) throws IOException, InterruptedException {
+            while (!failed && acked < total) {
+                wait();
+            }
+            if (failed) throw new IOException("Connection lost before every chunk was acknowledged");
+        }
+
+        synchronized void fail() {
+            failed = true;
+            notifyAll();
+        }
+    }
+
+    private static void sendPipelined(File file, DataInputStream dataIn, DataOutputStream dataOut) throws IOException {
+        long total = file.length();
+        Window window = new Window(dataIn.readInt());
+        System.out.println("Initial Window Size: " + window.advertised);
+
+        // Reads ACKs and window updates up to the end-of-file ACK, leaving the confirmation for the caller
+        Thread ackReader = new Thread(() -> {
+            try {
+                while (true) {
+                    int ack = dataIn.readInt();
+                    int urwnd = dataIn.readInt();
+                    window.ack(ack, urwnd);
+                    System.out.println("Received ACK for chunk " + ack + ", window " + urwnd);
+                    if (window.isLast(ack)) break;
+                }
+            } catch (IOException e) {
+                System.out.println("Error reading ACKs: " + e.getMessage());
+                window.fail();
+            }
+        }, "ack-reader");
+        ackReader.start();
+
+        try (DataInputStream fileIn = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            byte[] buffer = new byte[PIPELINED_CHUNK_SIZE];
+            int sequenceNumber = 0;
+            for (long remaining = total; remaining > 0; sequenceNumber++) {
+                int want = (int) Math.min(PIPELINED_CHUNK_SIZE, remaining);
+                if (!window.fits(want)) {
+                    dataOut.flush(); // Do not sit on buffered chunks while waiting for the ACKs they produce
+                }
+                int len = window.take(sequenceNumber, want);
+                fileIn.readFully(buffer, 0, len);
+                dataOut.writeInt(sequenceNumber);
+                dataOut.writeInt(len);
+                dataOut.write(buffer, 0, len);
+                System.out.println("Sent chunk " + sequenceNumber + " (" + len + " bytes)");
+                remaining -= len;
+            }
+            window.end(sequenceNumber);
+            dataOut.writeInt(sequenceNumber);
+            dataOut.writeInt(-1); // End of file marker
+            dataOut.flush();
+            window.awaitDone(total);
+            ackReader.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted during upload");
+        }
+    }
 }
\ No newline at end of file
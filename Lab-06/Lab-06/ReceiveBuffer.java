@@ -0,0 +1,169 @@
+import java.io.*;
+
+/**
+ * The server's receive buffer for one upload: a fixed ring of bytes filled by the connection
+ * and drained into the file by a consumer thread at a simulated application read rate. The
+ * window the server advertises is the ring's free space, so a slow consumer closes it and the
+ * sender has to wait, as with a real TCP receive buffer.
+ *
+ * A read rate of 0 drains as fast as the disk takes it. onDrain runs on the consumer thread
+ * after every slice it takes out of the ring, outside the buffer's lock.
+ */
+public final class ReceiveBuffer {
+
+    private static final int SLICES_PER_SECOND = 100; // A paced consumer wakes about every 10 ms
+
+    private final byte[] ring;
+    private final int readRate;
+    private final OutputStream sink;
+    private final Runnable onDrain;
+    private final Thread consumer;
+    private int head = 0; // Next byte the consumer takes
+    private int size = 0;
+    private int lastAdvertised;
+    private boolean closed = false;
+    private IOException failure;
+
+    public ReceiveBuffer(int capacity, int readRate, OutputStream sink, Runnable onDrain, String name) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        this.ring = new byte[capacity];
+        this.readRate = readRate;
+        this.sink = sink;
+        this.onDrain = onDrain;
+        this.lastAdvertised = capacity;
+        this.consumer = new Thread(this::consume, name);
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    public int capacity() {
+        return ring.length;
+    }
+
+    public synchronized int free() {
+        return ring.length - size;
+    }
+
+    /** Blocks until some space is free and returns it; the stop-and-wait chunk size. */
+    public synchronized int awaitFree() throws IOException, InterruptedException {
+        while (size == ring.length && failure == null) {
+            wait();
+        }
+        checkFailure();
+        return ring.length - size;
+    }
+
+    /**
+     * Copies len bytes into the ring. A sender that respects the window never has to wait here;
+     * one that overruns it is held back until the consumer makes room, instead of losing data.
+     */
+    public synchronized void put(byte[] data, int len) throws IOException, InterruptedException {
+        if (closed) throw new IllegalStateException("receive buffer is closed");
+        int off = 0;
+        while (off < len) {
+            while (size == ring.length && failure == null) {
+                wait();
+            }
+            checkFailure();
+            int tail = (head + size) % ring.length;
+            int n = Math.min(len - off, Math.min(ring.length - size, ring.length - tail));
+            System.arraycopy(data, off, ring, tail, n);
+            size += n;
+            off += n;
+            notifyAll();
+        }
+    }
+
+    /** The free space, remembered as the last window the sender was told about. */
+    public synchronized int advertise() {
+        lastAdvertised = ring.length - size;
+        return lastAdvertised;
+    }
+
+    /**
+     * The free space if it has grown by at least threshold bytes since the last advertised
+     * window, remembered as advertised; otherwise -1. Waiting for a worthwhile opening keeps a
+     * slow consumer from producing a stream of tiny windows (silly window syndrome).
+     */
+    public synchronized int windowUpdate(int threshold) {
+        int free = ring.length - size;
+        if (free - lastAdvertised < Math.max(1, threshold)) return -1;
+        lastAdvertised = free;
+        return free;
+    }
+
+    /** Waits for the consumer to drain what is left into the sink, then stops it. */
+    public void close() throws IOException, InterruptedException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        consumer.join();
+        synchronized (this) {
+            checkFailure();
+        }
+    }
+
+    /**
+     * Stops the consumer without draining, for an upload that was cut off; whatever is still in
+     * the ring is dropped. Does nothing once close() has returned.
+     */
+    public void abort() {
+        synchronized (this) {
+            closed = true;
+        }
+        consumer.interrupt();
+        try {
+            consumer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) throw new IOException("Receive buffer consumer failed", failure);
+    }
+
+    private void consume() {
+        int sliceMax = readRate > 0 ? Math.max(1, readRate / SLICES_PER_SECOND) : ring.length;
+        byte[] slice = new byte[Math.min(sliceMax, ring.length)];
+        try {
+            while (true) {
+                if (Thread.interrupted()) throw new InterruptedException(); // Aborted while draining
+                int n;
+                synchronized (this) {
+                    while (size == 0 && !closed) {
+                        wait();
+                    }
+                    if (size == 0) break; // Closed and drained
+                    n = Math.min(slice.length, Math.min(size, ring.length - head));
+                    System.arraycopy(ring, head, slice, 0, n);
+                    head = (head + n) % ring.length;
+                    size -= n;
+                    notifyAll();
+                }
+                long start = System.nanoTime();
+                sink.write(slice, 0, n);
+                onDrain.run();
+                if (readRate > 0) {
+                    // The application reads readRate bytes per second; the slice stands for that much time
+                    long sleepNs = n * 1_000_000_000L / readRate - (System.nanoTime() - start);
+                    if (sleepNs > 0) Thread.sleep(sleepNs / 1_000_000, (int) (sleepNs % 1_000_000));
+                }
+            }
+            sink.flush();
+        } catch (IOException e) {
+            synchronized (this) {
+                failure = e;
+                notifyAll();
+            }
+        } catch (InterruptedException e) {
+            // Nothing drains the ring any more; a put() or awaitFree() waiting for room must fail
+            synchronized (this) {
+                failure = new InterruptedIOException("Receive buffer consumer stopped");
+                notifyAll();
+            }
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -3,14 +3,33 @@ import java.net.*;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.*;
 
 public class server {
     private static final int PORT = 3923;
     private static final ArrayList<ClientHandler> clients = new ArrayList<>();
     private static int clientCounter = 0;
-    public static int rwnd = 2000;
+    public static int rwnd = 2000; // Receive buffer size per upload
+    // Simulated network delay: every ACK reaches the client this many ms after its chunk arrived
+    public static int ackDelayMs = 0;
+    // Simulated application: bytes per second it reads out of the receive buffer, 0 = as fast as the disk
+    public static int readRate = 0;
+    // Window updates wait until this much has opened up (or half the buffer), as TCP's receiver-side SWS avoidance
+    private static final int WINDOW_UPDATE_BYTES = 1024;
 
     public static void main(String[] args) {
+        for (String arg : args) {
+            if (arg.startsWith("--rwnd=")) {
+                rwnd = Integer.parseInt(arg.substring("--rwnd=".length()));
+            } else if (arg.startsWith("--ack-delay=")) {
+                ackDelayMs = Integer.parseInt(arg.substring("--ack-delay=".length()));
+            } else if (arg.startsWith("--read-rate=")) {
+                readRate = Integer.parseInt(arg.substring("--read-rate=".length()));
+            } else {
+                System.out.println("Usage: java server [--rwnd=BYTES] [--ack-delay=MS] [--read-rate=BYTES_PER_SEC]");
+                return;
+            }
+        }
         try {
         ServerSocket handshakingSocket = new ServerSocket(PORT);
         System.out.println("Server started on port " + PORT);
@@ -21,9 +40,10 @@ public class server {
             int clientNumber = clientCounter;
 
             System.out.println("Client " + clientNumber + " connected from " + communicationSocket.getInetAddress().getHostAddress());
+            communicationSocket.setTcpNoDelay(true); // Small ACKs go out at once instead of waiting on Nagle
             BufferedReader input = new BufferedReader(new InputStreamReader(communicationSocket.getInputStream()));
             BufferedWriter output = new BufferedWriter(new OutputStreamWriter(communicationSocket.getOutputStream()));
-            DataOutputStream dataOut = new DataOutputStream(communicationSocket.getOutputStream());
+            DataOutputStream dataOut = new DataOutputStream(new BufferedOutputStream(communicationSocket.getOutputStream()));
             DataInputStream dataIn = new DataInputStream(communicationSocket.getInputStream());
 
             ClientHandler clientHandler = new ClientHandler(input, output, dataOut, dataIn, clientNumber, communicationSocket);
@@ -47,6 +67,14 @@ public class server {
         private Socket socket;
         private int clientNumber;
 
+        // State of the current upload shared with its receive buffer's consumer thread
+        private final Object ackLock = new Object(); // Orders ACKs and window updates as they are queued
+        private volatile ReceiveBuffer buffer;
+        private volatile ScheduledExecutorService acker;
+        private int lastAck;
+        private boolean acksDone;
+        private int windowUpdates;
+
         public ClientHandler(BufferedReader input, BufferedWriter output, DataOutputStream dataOut, DataInputStream dataIn, int clientNumber, Socket socket) {
             this.input = input;
             this.output = output;
@@ -61,11 +89,15 @@ public class server {
             try {
                 while (true) {
                     dataOut.writeUTF("Please send the file name (or 'quit' to exit):");
+                    dataOut.flush();
                     String fileName = dataIn.readUTF();
                     
                     if ("quit".equalsIgnoreCase(fileName)) {
                         break;
                     }
+                    // Stop-and-wait gets a fresh rwnd before every chunk; pipelined gets it once and
+                    // then keeps sending while ACKs and window updates come back on their own
+                    boolean pipelined = dataIn.readBoolean();
                     
                     // Create uploads directory if it doesn't exist
                     File uploadsDir = new File("uploads");
@@ -90,62 +122,110 @@ public class server {
                     File outputFile = new File(uploadsDir, newFileName);
                     FileOutputStream fileOut = new FileOutputStream(outputFile);
                     
-                    System.out.println("Client " + clientNumber + " uploading: " + fileName + " -> " + newFileName);
+                    System.out.println("Client " + clientNumber + " uploading: " + fileName + " -> " + newFileName
+                            + (pipelined ? " (pipelined)" : " (stop-and-wait)"));
                     
                     int bytesReceived = 0;
-                    int lastAck = 0;
                     int expectedSeqNum = 0;
+                    int zeroWindows = 0;
+                    synchronized (ackLock) {
+                        lastAck = -1;
+                        acksDone = false;
+                        windowUpdates = 0;
+                    }
+                    try {
+                        acker = pipelined && ackDelayMs > 0
+                                ? Executors.newSingleThreadScheduledExecutor(r -> {
+                                    Thread t = new Thread(r, "ack-timer-" + clientNumber);
+                                    t.setDaemon(true);
+                                    return t;
+                                }) : null;
+                        // Stop-and-wait asks for the window before every chunk, so it needs no updates
+                        buffer = new ReceiveBuffer(rwnd, readRate, new BufferedOutputStream(fileOut),
+                                pipelined ? this::sendWindowUpdate : () -> {}, "consumer-" + clientNumber);
+                        if (pipelined) {
+                            synchronized (dataOut) {
+                                dataOut.writeInt(buffer.advertise());
+                                dataOut.flush();
+                            }
+                        }
                     
-                    while (true) {
-                        // Send the rwnd value to the client
-                        dataOut.writeInt(rwnd);
-                        dataOut.flush();
+                        while (true) {
+                            if (!pipelined) {
+                                // The next chunk may fill the free space; with none, wait for the consumer
+                                dataOut.writeInt(buffer.awaitFree());
+                                dataOut.flush();
+                            }
 
-                        int seqNum = dataIn.readInt();
-                        int length = dataIn.readInt();
-                        if (length == -1) {
-                            break;
-                        }
+                            int seqNum = dataIn.readInt();
+                            int length = dataIn.readInt();
+                            if (length == -1) {
+                                if (pipelined) {
+                                    // The client reads ACKs up to this one, so no window update may follow it
+                                    synchronized (ackLock) {
+                                        acksDone = true;
+                                        sendAck(acker, seqNum, buffer.advertise());
+                                    }
+                                }
+                                break;
+                            }
                         
-                        byte[] data = new byte[length];
-                        dataIn.readFully(data, 0, length);
+                            byte[] data = new byte[length];
+                            dataIn.readFully(data, 0, length);
                         
-                        if (seqNum == expectedSeqNum) {
-                            // Write data to file
-                            fileOut.write(data, 0, length);
-                            fileOut.flush();
-                            
-                            bytesReceived += length;
-                            expectedSeqNum++;
-                            
-                            System.out.println("Received packet with seqNum: " + seqNum + ", length: " + length + ", total bytes: " + bytesReceived);
-                            
-                            int availableWindow = rwnd - bytesReceived;
-                            
-                            // Send ACK with updated window size
-                            dataOut.writeInt(seqNum); // ACK number
-                            dataOut.writeInt(availableWindow); // Window size
-                            dataOut.flush();
+                            if (seqNum == expectedSeqNum) {
+                                // Hand the data to the receive buffer; the consumer thread writes it to the file
+                                buffer.put(data, length);
                             
-                            lastAck = seqNum;
+                                bytesReceived += length;
+                                expectedSeqNum++;
                             
-                            if (availableWindow < rwnd / 2) {
-                                bytesReceived = 0;
-                                System.out.println("Processing buffered data, window reset to " + rwnd);
+                                synchronized (ackLock) {
+                                    lastAck = seqNum;
+                                    int availableWindow = buffer.advertise();
+                                    if (availableWindow == 0) {
+                                        zeroWindows++;
+                                    }
+                                    System.out.println("Received packet with seqNum: " + seqNum + ", length: " + length
+                                            + ", total bytes: " + bytesReceived + ", window: " + availableWindow);
+                                
+                                    // Send ACK with updated window size
+                                    sendAck(acker, seqNum, availableWindow);
+                                }
+                            } else {
+                                synchronized (ackLock) {
+                                    sendAck(acker, lastAck, buffer.advertise());
+                                }
+                                System.out.println("Received out-of-order packet. Expected: " + expectedSeqNum + ", Got: " + seqNum);
                             }
-                        } else {
-                            dataOut.writeInt(lastAck);
-                            dataOut.writeInt(rwnd - bytesReceived);
-                            dataOut.flush();
-                            System.out.println("Received out-of-order packet. Expected: " + expectedSeqNum + ", Got: " + seqNum);
                         }
-                    }
                     
-                    fileOut.close();
-                    System.out.println("File " + newFileName + " upload completed successfully!");
+                        // Whatever the application has not read yet still has to reach the file
+                        buffer.close();
+                        if (acker != null) {
+                            // ACKs still on their way must reach the client before the confirmation
+                            acker.shutdown();
+                            acker.awaitTermination(1, TimeUnit.MINUTES);
+                        }
+                    } finally {
+                        // A cut-off upload never reaches the drain above; stop the consumer and the ACK
+                        // timer anyway, or both threads and the file stay open for good
+                        if (buffer != null) {
+                            buffer.abort();
+                        }
+                        if (acker != null) {
+                            acker.shutdownNow();
+                        }
+                        fileOut.close();
+                    }
+                    System.out.println("File " + newFileName + " upload completed successfully! " + bytesReceived
+                            + " bytes, " + zeroWindows + " zero-window ACKs, " + windowUpdates + " window updates");
                     
                     // Send completion acknowledgment to client
-                    dataOut.writeUTF("File uploaded successfully as: " + newFileName);
+                    synchronized (dataOut) {
+                        dataOut.writeUTF("File uploaded successfully as: " + newFileName);
+                        dataOut.flush();
+                    }
                 }
                 
                 socket.close();
@@ -155,7 +235,7 @@ public class server {
                     clients.remove(this);
                 }
                 
-            } catch (IOException e) {
+            } catch (IOException | InterruptedException e) {
                 System.out.println("Error handling client " + clientNumber + ": " + e.getMessage());
                 try {
                     socket.close();
@@ -167,5 +247,61 @@ public class server {
                 }
             }
         }
+
+        /**
+         * Runs on the consumer thread whenever it has read from the receive buffer. Once enough
+         * space has opened up it re-sends the last ACK with the new window, which is how a sender
+         * that was stopped by a zero window learns that it may go on.
+         */
+        private void sendWindowUpdate() {
+            synchronized (ackLock) {
+                if (acksDone) {
+                    return;
+                }
+                int window = buffer.windowUpdate(Math.min(WINDOW_UPDATE_BYTES, rwnd / 2));
+                if (window < 0) {
+                    return;
+                }
+                windowUpdates++;
+                System.out.println("Window update: ACK " + lastAck + ", window " + window);
+                try {
+                    sendAck(acker, lastAck, window);
+                } catch (IOException e) {
+                    System.out.println("Error sending window update to client " + clientNumber + ": " + e.getMessage());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        /**
+         * Writes [ack][window] after the simulated delay. Stop-and-wait (acker == null) sleeps
+         * through the delay, since the client cannot send anything until it sees the ACK anyway;
+         * pipelined uploads hand the ACK to a timer thread and go on reading the next chunk.
+         */
+        private void sendAck(ScheduledExecutorService acker, int ack, int window) throws IOException, InterruptedException {
+            if (acker != null) {
+                acker.schedule(() -> {
+                    try {
+                        writeAck(ack, window);
+                    } catch (IOException e) {
+                        System.out.println("Error sending ACK " + ack + " to client " + clientNumber + ": " + e.getMessage());
+                    }
+                }, ackDelayMs, TimeUnit.MILLISECONDS);
+                return;
+            }
+            if (ackDelayMs > 0) {
+                Thread.sleep(ackDelayMs);
+            }
+            writeAck(ack, window);
+        }
+
+        private void writeAck(int ack, int window) throws IOException {
+            synchronized (dataOut) {
+                dataOut.writeInt(ack); // ACK number
+                dataOut.writeInt(window); // Window size
+                dataOut.flush();
+            }
+        }
     } 
 }
\ No newline at end of file
@@ -19,6 +19,10 @@ public class Client {
                     String message;
                     while (true) {
                         message = serverIn.readUTF();
+                        if (message.equals("BUSY")) {
+                            System.out.println("Server is busy, please try again later.");
+                            break;
+                        }
                         System.out.println("Server: " + message);
                        
                         
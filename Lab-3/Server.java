@@ -1,18 +1,30 @@
 import java.io.*;
 import java.net.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.*;
 
 public class Server {
     private static final int PORT = 3923;
-    private static final ArrayList<ClientHandler> clients = new ArrayList<>();
+    private static final List<ClientHandler> clients = new CopyOnWriteArrayList<>();
     private static int clientCounter = 0;
+    private static final int MAX_HANDLERS = 32; // Chat sessions served at once
+    private static final int MAX_BACKLOG = 16; // Sessions waiting for someone to leave
+    private static final long DRAIN_TIMEOUT_S = 10; // After 'exit', time clients get to leave on their own
+    private static volatile boolean shuttingDown = false;
+    private static final AtomicLong admitted = new AtomicLong();
+    private static final AtomicLong rejected = new AtomicLong();
 
     public static void main(String[] args) {
         try {
             ServerSocket handshakingSocket = new ServerSocket(PORT);
             System.out.println("Server started on port " + PORT);
 
+            // Bounded pool and queue; once both are full a client is told BUSY and dropped
+            ThreadPoolExecutor handlers = new ThreadPoolExecutor(MAX_HANDLERS, MAX_HANDLERS,
+                    0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(MAX_BACKLOG));
+
             Thread serverInputThread = new Thread(() -> {
                 BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
                 String input;
@@ -28,11 +40,7 @@ public class Server {
                         Matcher matcher = pattern.matcher(input);
                         
                         if(input.equalsIgnoreCase("exit")) {
-                            System.out.println("Server shutting down...");
-                            for (ClientHandler client : clients) {
-                                client.sendMessage("Server is terminated by admin.");
-                            }
-                            handshakingSocket.close();
+                            shutdown(handshakingSocket, handlers);
                             break;
                         }
 
@@ -67,29 +75,63 @@ public class Server {
             });
             serverInputThread.start();
 
-            while (true) {
+            while (!shuttingDown) {
                 Socket communicationSocket = handshakingSocket.accept();
                 
                 clientCounter++;
                 int clientNumber = clientCounter;
 
-                System.out.println("Client " + clientNumber + ": " +
-                        communicationSocket.getInetAddress().getHostAddress());
-
                 DataOutputStream dataOut = new DataOutputStream(communicationSocket.getOutputStream());
                 DataInputStream dataIn = new DataInputStream(communicationSocket.getInputStream());
 
                 ClientHandler clientHandler = new ClientHandler(communicationSocket, dataIn, dataOut, clientNumber);
-                clients.add(clientHandler);
-
-                Thread clientThread = new Thread(clientHandler);
-                clientThread.start();
+                try {
+                    handlers.execute(clientHandler);
+                    admitted.incrementAndGet();
+                    System.out.println("Client " + clientNumber + ": " +
+                            communicationSocket.getInetAddress().getHostAddress() + " (" + getAdmissionStats(handlers) + ")");
+                } catch (RejectedExecutionException e) {
+                    rejected.incrementAndGet();
+                    try {
+                        dataOut.writeUTF("BUSY");
+                    } catch (IOException ignored) {
+                    } finally {
+                        communicationSocket.close();
+                    }
+                    System.out.println("Client " + clientNumber + " rejected, server busy (" + getAdmissionStats(handlers) + ")");
+                }
             }
         } catch (IOException e) {
-            System.out.println(e.getMessage());
+            if (!shuttingDown) { // Otherwise accept() just saw the listening socket close
+                System.out.println(e.getMessage());
+            }
         }
     }
 
+    /**
+     * Stops accepting, tells everyone the server is going away and gives them DRAIN_TIMEOUT_S to
+     * leave; whoever is still connected then is disconnected, so no handler outlives the server.
+     */
+    private static void shutdown(ServerSocket handshakingSocket, ThreadPoolExecutor handlers) throws IOException {
+        System.out.println("Server shutting down...");
+        shuttingDown = true;
+        handshakingSocket.close();
+        handlers.shutdown(); // Sessions still queued are turned away as soon as they start
+        broadcastMessage("Server is terminated by admin.");
+        try {
+            if (!handlers.awaitTermination(DRAIN_TIMEOUT_S, TimeUnit.SECONDS)) {
+                System.out.println("Disconnecting " + clients.size() + " remaining clients");
+                for (ClientHandler client : clients) {
+                    client.close();
+                }
+                handlers.awaitTermination(DRAIN_TIMEOUT_S, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        System.out.println("Server stopped.");
+    }
+
     private static void broadcastMessage(String message) {
         for (ClientHandler client : clients) {
             try {
@@ -119,14 +161,35 @@ public class Server {
             return clientNumber;
         }
 
-        public void sendMessage(String message) throws IOException {
+        // The console thread writes to this client too, so messages must not interleave
+        public synchronized void sendMessage(String message) throws IOException {
             dataOut.writeUTF(message);
         }
 
+        /** Drops the connection; the blocked read in run() fails and the handler ends. */
+        public void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+
         @Override
         public void run() {
+            // Listed only once it runs: a connection still waiting in the queue has not been
+            // greeted yet and must not get broadcasts. Every path below removes it again.
+            clients.add(this);
+            if (shuttingDown) { // Was still queued when 'exit' came in
+                try {
+                    sendMessage("Server is terminated by admin.");
+                } catch (IOException ignored) {
+                }
+                clients.remove(this);
+                close();
+                return;
+            }
             try {
-                dataOut.writeUTF("Connected as Client " + clientNumber);
+                sendMessage("Connected as Client " + clientNumber);
                 System.out.println("Active clients: " + getActiveClientsInfo());
 
                 String message;
@@ -135,7 +198,7 @@ public class Server {
                     System.out.println("Client " + clientNumber + ": " + message);
 
                     if (message.equalsIgnoreCase("Exit")) {
-                        dataOut.writeUTF("Client " + clientNumber + " terminated the connection");
+                        sendMessage("Client " + clientNumber + " terminated the connection");
                         break;
                     }
                 }
@@ -143,15 +206,22 @@ public class Server {
                 System.out.println("Client " + clientNumber + " (" + clientAddress + ") disconnected");
 
             } catch (IOException e) {
-                System.out.println(
-                        "Error at Client " + clientNumber + ": " + e.getMessage());
+                System.out.println(shuttingDown ? "Client " + clientNumber + " disconnected by shutdown"
+                        : "Error at Client " + clientNumber + ": " + e.getMessage());
             } finally {
                 clients.remove(this);
+                close();
                 System.out.println("Active clients: " + getActiveClientsInfo());
             }
         }
     }
 
+    private static String getAdmissionStats(ThreadPoolExecutor handlers) {
+        return "active " + handlers.getActiveCount() + "/" + MAX_HANDLERS
+                + ", queued " + handlers.getQueue().size() + "/" + MAX_BACKLOG
+                + ", admitted " + admitted.get() + ", rejected " + rejected.get();
+    }
+
     private static String getActiveClientsInfo() {
         if (clients.isEmpty()) {
             return "None";
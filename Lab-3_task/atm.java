@@ -26,6 +26,10 @@ public class atm {
             serverOut.println(authMsg);
 
             String authResp = serverIn.readLine();  
+            if (authResp == null || authResp.equals("BUSY")) {
+                System.out.println("Bank server is busy, please try again later.");
+                return;
+            }
             if (authResp.startsWith("AUTH_OK")) {
                 System.out.println("Authentication successful.\n");
             } else {
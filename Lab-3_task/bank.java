@@ -2,6 +2,7 @@ import java.io.*;
 import java.net.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.UUID;
@@ -9,6 +10,10 @@ import java.util.UUID;
 public class bank {
     private static final int PORT = 3923;
     private static final String LOG_FILE = "serverlog.txt";
+    private static final int MAX_HANDLERS = 32; // ATM sessions served at once
+    private static final int MAX_BACKLOG = 64; // Sessions waiting for a free handler
+    private static final AtomicLong admittedConnections = new AtomicLong();
+    private static final AtomicLong rejectedConnections = new AtomicLong();
     
     public static void main(String[] args) {
         BankProtocolHandler protocolHandler = new BankProtocolHandler();
@@ -18,13 +23,29 @@ public class bank {
             serverSocket = new ServerSocket(PORT);
             System.out.println("Bank Server started on port " + PORT);
             
+            // Bounded pool and queue; past both limits an ATM is answered BUSY and disconnected
+            ThreadPoolExecutor handlerPool = new ThreadPoolExecutor(MAX_HANDLERS, MAX_HANDLERS,
+                    0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(MAX_BACKLOG));
+            
             while (true) {
                 try {
                     Socket clientSocket = serverSocket.accept();
-                    System.out.println("New ATM connection from: " + clientSocket.getInetAddress());
                     
                     ClientHandler handler = new ClientHandler(clientSocket, protocolHandler);
-                    new Thread(handler).start();
+                    try {
+                        handlerPool.execute(handler);
+                        admittedConnections.incrementAndGet();
+                        System.out.println("New ATM connection from: " + clientSocket.getInetAddress()
+                                + " (" + getAdmissionStats(handlerPool) + ")");
+                    } catch (RejectedExecutionException e) {
+                        rejectedConnections.incrementAndGet();
+                        try (Socket rejectedSocket = clientSocket) {
+                            new PrintWriter(rejectedSocket.getOutputStream(), true).println("BUSY");
+                        }
+                        System.out.println("Rejected ATM connection from: " + clientSocket.getInetAddress()
+                                + ", server busy (" + getAdmissionStats(handlerPool) + ")");
+                        logToFile("REJECTED: " + clientSocket.getInetAddress() + " (server busy)");
+                    }
                 } catch (IOException e) {
                     System.err.println("Error accepting client connection: " + e.getMessage());
                 }
@@ -42,6 +63,12 @@ public class bank {
         }
     }
     
+    private static String getAdmissionStats(ThreadPoolExecutor handlerPool) {
+        return "active " + handlerPool.getActiveCount() + "/" + MAX_HANDLERS
+                + ", queued " + handlerPool.getQueue().size() + "/" + MAX_BACKLOG
+                + ", admitted " + admittedConnections.get() + ", rejected " + rejectedConnections.get();
+    }
+    
     private static synchronized void logToFile(String message) {
         try (FileWriter fw = new FileWriter(LOG_FILE, true);
              BufferedWriter bw = new BufferedWriter(fw);
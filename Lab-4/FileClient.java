@@ -18,6 +18,11 @@ public class FileClient {
 
             // Read welcome message
             String sMsg = sTextIn.readLine();
+            if (sMsg == null || sMsg.equals("BUSY")) {
+                System.out.println("Server is busy, please try again later.");
+                socket.close();
+                return;
+            }
             System.out.println("Server: " + sMsg);
 
             boolean keepRunning = true;
@@ -1,12 +1,18 @@
 import java.io.*;
 import java.net.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class server {
     private static final int PORT = 3923;
-    private static final ArrayList<ClientHandler> clients = new ArrayList<>();
+    private static final List<ClientHandler> clients = Collections.synchronizedList(new ArrayList<>());
     private static int clientCounter = 0;
     private static final String FILES_DIRECTORY = "files"; 
+    private static final int MAX_HANDLERS = 32; // Clients served at once
+    private static final int MAX_BACKLOG = 64; // Clients waiting for a free handler
+    private static final AtomicLong admitted = new AtomicLong();
+    private static final AtomicLong rejected = new AtomicLong();
 
     public static void main(String[] args) {
         try{
@@ -18,21 +24,37 @@ public class server {
             ServerSocket handshakingSocket = new ServerSocket(PORT);
             System.out.println("Server started on port " + PORT);
 
+            // Bounded pool and queue: when both are full the client is told BUSY right away
+            ThreadPoolExecutor handlers = new ThreadPoolExecutor(MAX_HANDLERS, MAX_HANDLERS,
+                    0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(MAX_BACKLOG));
+
             while(true) {
                 Socket communicationSocket = handshakingSocket.accept();
                 clientCounter++;
                 int clientNumber = clientCounter;
     
-                System.out.println("Client " + clientNumber + " connected from " + communicationSocket.getInetAddress().getHostAddress());
                 BufferedReader input = new BufferedReader(new InputStreamReader(communicationSocket.getInputStream()));
                 BufferedWriter output = new BufferedWriter(new OutputStreamWriter(communicationSocket.getOutputStream()));
                 DataOutputStream dataOut = new DataOutputStream(communicationSocket.getOutputStream());
 
                 ClientHandler clientHandler = new ClientHandler(input, output, dataOut, clientNumber, communicationSocket);
-                clients.add(clientHandler);
-
-                Thread clientThread = new Thread(clientHandler);
-                clientThread.start();
+                try {
+                    handlers.execute(clientHandler);
+                    admitted.incrementAndGet();
+                    System.out.println("Client " + clientNumber + " connected from " + communicationSocket.getInetAddress().getHostAddress()
+                            + " (" + getAdmissionStats(handlers) + ")");
+                } catch (RejectedExecutionException e) {
+                    rejected.incrementAndGet();
+                    try {
+                        output.write("BUSY");
+                        output.newLine();
+                        output.flush();
+                    } catch (IOException ignored) {
+                    } finally {
+                        communicationSocket.close();
+                    }
+                    System.out.println("Client " + clientNumber + " rejected, server busy (" + getAdmissionStats(handlers) + ")");
+                }
             }
         }
         catch (IOException e) {
@@ -122,6 +144,7 @@ public class server {
 
         @Override
         public void run() {
+            clients.add(this); // Only once it runs, so a queued connection is not listed before its greeting
             try {
                 this.clientAddress = socket.getInetAddress().getHostAddress();
                 
@@ -177,14 +200,22 @@ public class server {
         }
     }
 
+    private static String getAdmissionStats(ThreadPoolExecutor handlers) {
+        return "active " + handlers.getActiveCount() + "/" + MAX_HANDLERS
+                + ", queued " + handlers.getQueue().size() + "/" + MAX_BACKLOG
+                + ", admitted " + admitted.get() + ", rejected " + rejected.get();
+    }
+
     private static String getActiveClientsInfo() {
         if (clients.isEmpty()) {
             return "None";
         }
 
         StringBuilder sb = new StringBuilder();
-        for (ClientHandler client : clients) {
-            sb.append("Client " + client.getClientNumber()+ "\n");
+        synchronized (clients) {
+            for (ClientHandler client : clients) {
+                sb.append("Client " + client.getClientNumber()+ "\n");
+            }
         }
         return sb.toString();
     }
@@ -0,0 +1,268 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Streaming summary of {@link CwndTraceWriter} files: mean and peak cwnd, time in slow start,
+ * loss events and round-trip times. Only one block of rounds is decoded at a time, so memory
+ * does not grow with the length of the trace.
+ *
+ * Usage: java CwndTraceSummary reno.cwnd [tahoe.cwnd ...]
+ *        java CwndTraceSummary --bench=ROUNDS [--out=bench.cwnd]
+ *
+ * --bench writes a synthetic AIMD trace of the given length and summarizes it, reporting the
+ * cost per round of recording and of reading back.
+ */
+public class CwndTraceSummary {
+
+    private static final String BENCH_FILE = "bench.cwnd";
+
+    /** Reads a trace one round at a time; the current round is in the public fields after next(). */
+    public static final class Reader implements Closeable {
+        private final DataInputStream in;
+        private final long epochMillis;
+        private final int[] rounds = new int[CwndTraceWriter.BLOCK_ROUNDS];
+        private final long[] times = new long[CwndTraceWriter.BLOCK_ROUNDS];
+        private final int[] cwnds = new int[CwndTraceWriter.BLOCK_ROUNDS];
+        private final int[] ssthreshes = new int[CwndTraceWriter.BLOCK_ROUNDS];
+        private final int[] rtts = new int[CwndTraceWriter.BLOCK_ROUNDS];
+        private final byte[] eventMasks = new byte[CwndTraceWriter.BLOCK_ROUNDS];
+        private final byte[] block = new byte[CwndTraceWriter.BLOCK_ROUNDS * CwndTraceWriter.MAX_ROUND_BYTES];
+        private int count = 0;
+        private int index = 0;
+        private int pos = 0;
+
+        public int round;
+        public long timeMicros;
+        public int cwnd;
+        public int ssthresh;
+        public int rttMicros;
+        public int events;
+
+        public Reader(Path path) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16));
+            if (in.readInt() != CwndTraceWriter.MAGIC) {
+                in.close();
+                throw new IOException(path + " is not a cwnd trace");
+            }
+            int version = in.readInt();
+            if (version != CwndTraceWriter.VERSION) {
+                in.close();
+                throw new IOException(path + ": unsupported trace version " + version);
+            }
+            epochMillis = in.readLong();
+        }
+
+        public long getEpochMillis() {
+            return epochMillis;
+        }
+
+        public boolean next() throws IOException {
+            if (index == count && !readBlock()) return false;
+            round = rounds[index];
+            timeMicros = times[index];
+            cwnd = cwnds[index];
+            ssthresh = ssthreshes[index];
+            rttMicros = rtts[index];
+            events = eventMasks[index] & 0xFF;
+            index++;
+            return true;
+        }
+
+        private boolean readBlock() throws IOException {
+            int n;
+            try {
+                n = in.readInt();
+            } catch (EOFException e) {
+                return false; // Clean end of trace
+            }
+            int length = in.readInt();
+            if (n < 1 || n > CwndTraceWriter.BLOCK_ROUNDS || length < n || length > block.length) {
+                throw new IOException("Corrupt block header: " + n + " rounds, " + length + " bytes");
+            }
+            in.readFully(block, 0, length);
+            count = n;
+            index = 0;
+            pos = 0;
+            getDeltas(rounds);
+            long prev = 0;
+            for (int i = 0; i < count; i++) {
+                prev += unZigZag(getVarLong());
+                times[i] = prev;
+            }
+            getDeltas(cwnds);
+            getDeltas(ssthreshes);
+            getDeltas(rtts);
+            if (pos + count != length) {
+                throw new IOException("Corrupt block: columns end at " + (pos + count) + " of " + length + " bytes");
+            }
+            System.arraycopy(block, pos, eventMasks, 0, count);
+            return true;
+        }
+
+        private void getDeltas(int[] column) throws IOException {
+            int prev = 0;
+            for (int i = 0; i < count; i++) {
+                prev += (int) unZigZag(getVarLong());
+                column[i] = prev;
+            }
+        }
+
+        private long getVarLong() throws IOException {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (pos >= block.length) throw new IOException("Corrupt block: varint runs past the end");
+                byte b = block[pos++];
+                v |= (long) (b & 0x7F) << shift;
+                if (b >= 0) return v;
+            }
+            throw new IOException("Corrupt block: varint longer than 10 bytes");
+        }
+
+        private static long unZigZag(long v) {
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    // --- Accumulators, folded one round at a time ---
+    private long rounds = 0;
+    private long cwndSum = 0;
+    private int maxCwnd = 0;
+    private long timeWeightedCwnd = 0; // cwnd x microseconds
+    private long slowStartRounds = 0;
+    private long slowStartMicros = 0;
+    private long fastRetransmits = 0;
+    private long timeouts = 0;
+    private long rttSamples = 0, rttSum = 0;
+    private int minRtt = Integer.MAX_VALUE, maxRtt = 0;
+    private long firstMicros = -1, lastMicros = 0;
+
+    // Previous round, whose duration is only known once the next one starts
+    private boolean havePrevious = false;
+    private long prevMicros;
+    private int prevCwnd;
+    private boolean prevSlowStart;
+
+    private void add(Reader r) {
+        if (firstMicros < 0) firstMicros = r.timeMicros;
+        if (havePrevious) {
+            long duration = r.timeMicros - prevMicros;
+            timeWeightedCwnd += duration * prevCwnd;
+            if (prevSlowStart) slowStartMicros += duration;
+        }
+        rounds++;
+        cwndSum += r.cwnd;
+        maxCwnd = Math.max(maxCwnd, r.cwnd);
+        boolean slowStart = r.cwnd < r.ssthresh;
+        if (slowStart) slowStartRounds++;
+        if ((r.events & CwndTraceWriter.EVENT_FAST_RETRANSMIT) != 0) fastRetransmits++;
+        if ((r.events & CwndTraceWriter.EVENT_TIMEOUT) != 0) timeouts++;
+        if (r.rttMicros > 0) {
+            rttSamples++;
+            rttSum += r.rttMicros;
+            minRtt = Math.min(minRtt, r.rttMicros);
+            maxRtt = Math.max(maxRtt, r.rttMicros);
+        }
+        havePrevious = true;
+        prevMicros = r.timeMicros;
+        prevCwnd = r.cwnd;
+        prevSlowStart = slowStart;
+        lastMicros = r.timeMicros;
+    }
+
+    public static CwndTraceSummary summarize(Path path) throws IOException {
+        CwndTraceSummary summary = new CwndTraceSummary();
+        try (Reader reader = new Reader(path)) {
+            while (reader.next()) {
+                summary.add(reader);
+            }
+        }
+        return summary;
+    }
+
+    private void print(String name) {
+        System.out.println("\n===== " + name + " =====");
+        if (rounds == 0) {
+            System.out.println("Empty trace");
+            return;
+        }
+        long span = lastMicros - firstMicros;
+        System.out.printf("Rounds: %,d over %.3f s%n", rounds, span / 1e6);
+        System.out.printf("cwnd: mean %.2f per round, %s over time, max %d%n", (double) cwndSum / rounds,
+                span > 0 ? String.format("%.2f", (double) timeWeightedCwnd / span) : "n/a", maxCwnd);
+        System.out.printf("Slow start: %,d rounds (%.1f%%), %.3f s (%s of the time)%n", slowStartRounds,
+                100.0 * slowStartRounds / rounds, slowStartMicros / 1e6,
+                span > 0 ? String.format("%.1f%%", 100.0 * slowStartMicros / span) : "n/a");
+        long losses = fastRetransmits + timeouts;
+        System.out.printf("Loss events: %,d (%,d fast retransmits, %,d timeouts)%s%n", losses, fastRetransmits, timeouts,
+                losses > 0 ? String.format(", one every %.1f rounds", (double) rounds / losses) : "");
+        if (rttSamples > 0) {
+            System.out.printf("RTT: mean %.2f ms, min %.2f ms, max %.2f ms%n",
+                    rttSum / 1e3 / rttSamples, minRtt / 1e3, maxRtt / 1e3);
+        }
+    }
+
+    /** Writes an AIMD saw-tooth with random losses, then reads it back, timing both halves. */
+    private static void bench(long totalRounds, Path path) throws IOException {
+        Random random = new Random(1);
+        int cwnd = 1, ssthresh = 64;
+        long time = 0;
+        long t0 = System.nanoTime();
+        try (CwndTraceWriter writer = new CwndTraceWriter(path)) {
+            for (int round = 1; round <= totalRounds; round++) {
+                int rtt = 20_000 + random.nextInt(2_000);
+                int events = 0;
+                if (random.nextDouble() < 0.01) {
+                    boolean timeout = random.nextDouble() < 0.2;
+                    events = timeout ? CwndTraceWriter.EVENT_TIMEOUT : CwndTraceWriter.EVENT_FAST_RETRANSMIT;
+                    ssthresh = Math.max(cwnd / 2, 2);
+                    cwnd = timeout ? 1 : ssthresh;
+                }
+                writer.record(round, time, cwnd, ssthresh, rtt, events);
+                if (events == 0) cwnd = cwnd < ssthresh ? cwnd * 2 : cwnd + 1;
+                time += rtt;
+            }
+        }
+        long writeNs = System.nanoTime() - t0;
+        long bytes = Files.size(path);
+
+        t0 = System.nanoTime();
+        CwndTraceSummary summary = summarize(path);
+        long readNs = System.nanoTime() - t0;
+        summary.print(path + " (synthetic)");
+        System.out.printf("%nRecorded %,d rounds in %.0f ms (%.0f ns/round), %,d bytes (%.2f bytes/round)%n",
+                totalRounds, writeNs / 1e6, (double) writeNs / totalRounds, bytes, (double) bytes / totalRounds);
+        System.out.printf("Summarized in %.0f ms (%.0f ns/round)%n", readNs / 1e6, (double) readNs / totalRounds);
+    }
+
+    public static void main(String[] args) throws IOException {
+        List<Path> traces = new ArrayList<>();
+        long benchRounds = 0;
+        Path benchFile = Paths.get(BENCH_FILE);
+        for (String arg : args) {
+            if (arg.startsWith("--bench=")) {
+                benchRounds = Long.parseLong(arg.substring("--bench=".length()));
+            } else if (arg.startsWith("--out=")) {
+                benchFile = Paths.get(arg.substring("--out=".length()));
+            } else {
+                traces.add(Paths.get(arg));
+            }
+        }
+        if (benchRounds > 0) {
+            bench(benchRounds, benchFile);
+            return;
+        }
+        if (traces.isEmpty()) {
+            System.err.println("Usage: java CwndTraceSummary trace.cwnd [more.cwnd ...] | --bench=ROUNDS [--out=FILE]");
+            System.exit(1);
+        }
+        for (Path trace : traces) {
+            summarize(trace).print(trace.toString());
+        }
+    }
+}
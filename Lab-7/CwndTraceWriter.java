@@ -0,0 +1,107 @@
+import java.io.*;
+import java.nio.file.*;
+
+/**
+ * Compact per-round congestion trace written by {@link client} and read back by
+ * {@link CwndTraceSummary}. Rounds are buffered into blocks of up to BLOCK_ROUNDS and each block
+ * is stored column by column, every numeric column as zig-zag varints of the difference to the
+ * previous round, so a steady round costs a handful of bytes instead of a line of text:
+ *
+ * <pre>
+ *   header: int magic | int version | long epochMillis
+ *   block:  int rounds | int length | round[] | timeMicros[] | cwnd[] | ssthresh[] | rttMicros[] | events[]
+ * </pre>
+ *
+ * Deltas restart at zero in every block and length is the encoded size of the columns, so a
+ * reader can decode one block at a time, or skip it, without seeing the rest of the file.
+ * events holds one raw byte per round, a mask of the EVENT_ bits.
+ */
+public final class CwndTraceWriter implements Closeable {
+
+    public static final int MAGIC = 0x43574E44; // "CWND"
+    public static final int VERSION = 1;
+    public static final int BLOCK_ROUNDS = 4096;
+    public static final int MAX_ROUND_BYTES = 5 + 10 + 5 + 5 + 5 + 1; // Worst-case varints per round
+
+    // --- Event bits ---
+    public static final int EVENT_FAST_RETRANSMIT = 0x01;
+    public static final int EVENT_TIMEOUT = 0x02;
+
+    private final DataOutputStream out;
+    private final int[] rounds = new int[BLOCK_ROUNDS];
+    private final long[] times = new long[BLOCK_ROUNDS];
+    private final int[] cwnds = new int[BLOCK_ROUNDS];
+    private final int[] ssthreshes = new int[BLOCK_ROUNDS];
+    private final int[] rtts = new int[BLOCK_ROUNDS];
+    private final byte[] events = new byte[BLOCK_ROUNDS];
+    private final byte[] block = new byte[BLOCK_ROUNDS * MAX_ROUND_BYTES];
+    private int count = 0;
+    private int pos = 0;
+
+    public CwndTraceWriter(Path path) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(System.currentTimeMillis());
+    }
+
+    /** One round; timeMicros is measured from the start of the transfer. */
+    public void record(int round, long timeMicros, int cwnd, int ssthresh, int rttMicros, int eventMask) throws IOException {
+        rounds[count] = round;
+        times[count] = timeMicros;
+        cwnds[count] = cwnd;
+        ssthreshes[count] = ssthresh;
+        rtts[count] = rttMicros;
+        events[count] = (byte) eventMask;
+        if (++count == BLOCK_ROUNDS) {
+            flushBlock();
+        }
+    }
+
+    private void flushBlock() throws IOException {
+        if (count == 0) return;
+        pos = 0;
+        putDeltas(rounds);
+        long prev = 0;
+        for (int i = 0; i < count; i++) {
+            putVarLong(zigZag(times[i] - prev));
+            prev = times[i];
+        }
+        putDeltas(cwnds);
+        putDeltas(ssthreshes);
+        putDeltas(rtts);
+        System.arraycopy(events, 0, block, pos, count);
+        pos += count;
+
+        out.writeInt(count);
+        out.writeInt(pos);
+        out.write(block, 0, pos);
+        count = 0;
+    }
+
+    private void putDeltas(int[] column) {
+        int prev = 0;
+        for (int i = 0; i < count; i++) {
+            putVarLong(zigZag((long) column[i] - prev));
+            prev = column[i];
+        }
+    }
+
+    private void putVarLong(long v) {
+        while ((v & ~0x7FL) != 0) {
+            block[pos++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        block[pos++] = (byte) v;
+    }
+
+    private static long zigZag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    @Override
+    public void close() throws IOException {
+        flushBlock();
+        out.close();
+    }
+}
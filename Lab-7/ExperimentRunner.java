@@ -0,0 +1,276 @@
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Batch parameter sweep for the congestion-control lab: runs {@link client} against an in-process
+ * {@link server.ClientHandler} for every combination of loss rate, initial ssthresh, chunk size,
+ * congestion mode and retransmission strategy, and writes one CSV row per run with throughput,
+ * rounds, retransmissions and the cwnd series.
+ *
+ * Runs share a fork-join pool with one worker per core by default. With the client's adaptive
+ * RTO a run is short and CPU-bound, and running more at once than there are cores inflates the
+ * measured RTTs and causes spurious timeouts. Each run gets its own ephemeral loopback port and its
+ * own seeded loss generator, so runs never see each other's traffic and a sweep can be repeated.
+ *
+ * Usage: java ExperimentRunner [--loss=0,0.01,0.05] [--ssthresh=8,16,64] [--chunk=512,1024]
+ *                              [--modes=tahoe,reno] [--strategies=gbn,sr] [--repeats=N]
+ *                              [--parallel=N] [--seed=S] [--file=Board.jpeg] [--out=sweep.csv]
+ *                              [--traces=DIR]
+ *
+ * With --traces every run also leaves a {@link CwndTraceWriter} file in DIR, named after its
+ * grid point, for {@link CwndTraceSummary}.
+ */
+public class ExperimentRunner {
+
+    // --- Default grid (overridable from the command line) ---
+    private static final String FILE_TO_SEND = "Board.jpeg";
+    private static final String OUTPUT_FILE = "sweep.csv";
+    private static final double[] LOSS_RATES = {0, 0.01, 0.02, 0.05, 0.1};
+    private static final int[] SSTHRESHES = {8, 16, 32, 64};
+    private static final int[] CHUNK_SIZES = {512, 1024, 4096};
+    private static final int REPEATS = 1; // Runs per grid point, each repeat with its own seed
+    private static final int PARALLELISM = Runtime.getRuntime().availableProcessors(); // Concurrent runs
+    private static final long SEED = 1;
+    private static final int ACCEPT_TIMEOUT_MS = 10_000;
+    private static final long RUN_TIMEOUT_S = 600; // Give up on a run's receiver after this long
+
+    private static final PrintStream QUIET = new PrintStream(OutputStream.nullOutputStream());
+
+    // --- One grid point ---
+    private static final class Config {
+        final client.Mode mode;
+        final boolean selective;
+        final double loss;
+        final int ssthresh;
+        final int chunkSize;
+        final long seed;
+
+        Config(client.Mode mode, boolean selective, double loss, int ssthresh, int chunkSize, long seed) {
+            this.mode = mode;
+            this.selective = selective;
+            this.loss = loss;
+            this.ssthresh = ssthresh;
+            this.chunkSize = chunkSize;
+            this.seed = seed;
+        }
+
+        String strategy() {
+            return selective ? "sr" : "gbn";
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %s loss=%s ssthresh=%d chunk=%d", mode.name().toLowerCase(), strategy(),
+                    loss, ssthresh, chunkSize);
+        }
+    }
+
+    // --- Outcome of one run ---
+    private static final class Result {
+        final Config config;
+        final boolean verified;
+        final long elapsedMs;
+        final int rounds;
+        final long bytesSent;
+        final long retransmittedBytes;
+        final long redundantBytes;
+        final int timeouts;
+        final int fastRetransmits;
+        final List<Integer> cwnd;
+        final String error; // null unless the run threw
+
+        Result(Config config, boolean verified, client c, long redundantBytes, String error) {
+            this.config = config;
+            this.verified = verified;
+            this.elapsedMs = c != null ? c.getElapsedMs() : 0;
+            this.rounds = c != null ? c.getRounds() : 0;
+            this.bytesSent = c != null ? c.getBytesSent() : 0;
+            this.retransmittedBytes = c != null ? c.getRetransmittedBytes() : 0;
+            this.redundantBytes = redundantBytes;
+            this.timeouts = c != null ? c.getTimeouts() : 0;
+            this.fastRetransmits = c != null ? c.getFastRetransmits() : 0;
+            this.cwnd = c != null ? c.getCwndHistory() : Collections.emptyList();
+            this.error = error;
+        }
+    }
+
+    private final byte[] fileBytes;
+    private final Path traceDir; // null unless --traces
+    private final AtomicInteger finished = new AtomicInteger();
+    private int total;
+
+    public ExperimentRunner(byte[] fileBytes, Path traceDir) {
+        this.fileBytes = fileBytes;
+        this.traceDir = traceDir;
+    }
+
+    public List<Result> sweep(List<Config> configs, int parallelism) throws InterruptedException {
+        total = configs.size();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<Callable<Result>> runs = configs.stream()
+                    .map(c -> (Callable<Result>) () -> runOne(c))
+                    .collect(Collectors.toList());
+            List<Result> results = new ArrayList<>();
+            for (Future<Result> f : pool.invokeAll(runs)) {
+                try {
+                    results.add(f.get());
+                } catch (ExecutionException e) { // runOne reports its own failures; this is a bug
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+            return results;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** One transfer over loopback: the receiving handler on its own thread, the client on this one. */
+    private Result runOne(Config config) {
+        client sender = null;
+        Result result;
+        try (ServerSocket listener = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            listener.setSoTimeout(ACCEPT_TIMEOUT_MS);
+            ByteArrayOutputStream received = new ByteArrayOutputStream(fileBytes.length);
+            FutureTask<Long> receiver = new FutureTask<>(() -> {
+                server.ClientHandler handler = new server.ClientHandler(listener.accept(), config.loss,
+                        new Random(config.seed), received, QUIET);
+                handler.run();
+                return handler.getDuplicateBytes();
+            });
+            Thread t = new Thread(receiver, "sweep-receiver");
+            t.setDaemon(true);
+            t.start();
+
+            sender = new client(config.mode, config.selective, listener.getInetAddress().getHostAddress(), listener.getLocalPort(),
+                    config.chunkSize, config.ssthresh);
+            sender.setQuiet(true);
+            if (traceDir != null) {
+                sender.setTrace(new CwndTraceWriter(traceDir.resolve(String.format(Locale.ROOT, "%s_%s_%s_%d_%d_%d.cwnd",
+                        config.mode.name().toLowerCase(), config.strategy(), config.loss, config.ssthresh,
+                        config.chunkSize, config.seed))));
+            }
+            sender.send(fileBytes);
+            long redundant = receiver.get(RUN_TIMEOUT_S, TimeUnit.SECONDS);
+            result = new Result(config, Arrays.equals(fileBytes, received.toByteArray()), sender, redundant, null);
+        } catch (Exception e) {
+            Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+            String error = cause.getClass().getSimpleName() + (cause.getMessage() != null ? ": " + cause.getMessage() : "");
+            result = new Result(config, false, sender, 0, error);
+        }
+        System.out.printf("[Sweep] %d/%d %s: %s%n", finished.incrementAndGet(), total, config,
+                result.error != null ? result.error : result.elapsedMs + " ms, " + result.rounds + " rounds");
+        return result;
+    }
+
+    private void writeCsv(List<Result> results, Path path) throws IOException {
+        try (PrintWriter w = new PrintWriter(Files.newBufferedWriter(path))) {
+            w.println("mode,strategy,loss,ssthresh,chunk,seed,verified,file_bytes,elapsed_ms,throughput_kbps,"
+                    + "rounds,sent_bytes,retransmitted_bytes,redundant_bytes,timeouts,fast_retransmits,cwnd_series,error");
+            for (Result r : results) {
+                Config c = r.config;
+                double throughput = r.verified && r.elapsedMs > 0 ? fileBytes.length / 1024.0 / (r.elapsedMs / 1000.0) : 0;
+                w.printf(Locale.ROOT, "%s,%s,%s,%d,%d,%d,%b,%d,%d,%.1f,%d,%d,%d,%d,%d,%d,%s,%s%n",
+                        c.mode.name().toLowerCase(), c.strategy(), c.loss, c.ssthresh, c.chunkSize, c.seed,
+                        r.verified, fileBytes.length, r.elapsedMs, throughput, r.rounds, r.bytesSent,
+                        r.retransmittedBytes, r.redundantBytes, r.timeouts, r.fastRetransmits,
+                        r.cwnd.stream().map(String::valueOf).collect(Collectors.joining(" ")),
+                        r.error == null ? "" : '"' + r.error.replace("\"", "'") + '"');
+            }
+        }
+    }
+
+    private static void summarize(List<Result> results) {
+        System.out.println("\n===== Sweep Summary =====");
+        Map<String, List<Result>> groups = results.stream().collect(Collectors.groupingBy(
+                r -> r.config.mode.name().toLowerCase() + " " + r.config.strategy(), TreeMap::new, Collectors.toList()));
+        groups.forEach((name, group) -> {
+            List<Result> ok = group.stream().filter(r -> r.verified).collect(Collectors.toList());
+            System.out.printf("  %-10s %3d/%d verified, mean %.0f ms, mean %.0f redundant bytes%n", name, ok.size(),
+                    group.size(), ok.stream().mapToLong(r -> r.elapsedMs).average().orElse(0),
+                    ok.stream().mapToLong(r -> r.redundantBytes).average().orElse(0));
+        });
+    }
+
+    public static void main(String[] args) throws Exception {
+        double[] losses = LOSS_RATES;
+        int[] ssthreshes = SSTHRESHES;
+        int[] chunkSizes = CHUNK_SIZES;
+        List<client.Mode> modes = new ArrayList<>(Arrays.asList(client.Mode.TAHOE, client.Mode.RENO));
+        List<Boolean> strategies = new ArrayList<>(Arrays.asList(false, true));
+        int repeats = REPEATS;
+        int parallelism = PARALLELISM;
+        long seed = SEED;
+        String file = FILE_TO_SEND;
+        String output = OUTPUT_FILE;
+        Path traceDir = null;
+
+        for (String arg : args) {
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith("--loss=")) {
+                losses = Arrays.stream(value.split(",")).mapToDouble(Double::parseDouble).toArray();
+            } else if (arg.startsWith("--ssthresh=")) {
+                ssthreshes = Arrays.stream(value.split(",")).mapToInt(Integer::parseInt).toArray();
+            } else if (arg.startsWith("--chunk=")) {
+                chunkSizes = Arrays.stream(value.split(",")).mapToInt(Integer::parseInt).toArray();
+            } else if (arg.startsWith("--modes=")) {
+                modes.clear();
+                for (String mode : value.split(",")) {
+                    modes.add(client.Mode.valueOf(mode.trim().toUpperCase()));
+                }
+            } else if (arg.startsWith("--strategies=")) {
+                strategies.clear();
+                for (String strategy : value.split(",")) {
+                    strategies.add(strategy.trim().equalsIgnoreCase("sr"));
+                }
+            } else if (arg.startsWith("--repeats=")) {
+                repeats = Integer.parseInt(value);
+            } else if (arg.startsWith("--parallel=")) {
+                parallelism = Integer.parseInt(value);
+            } else if (arg.startsWith("--seed=")) {
+                seed = Long.parseLong(value);
+            } else if (arg.startsWith("--file=")) {
+                file = value;
+            } else if (arg.startsWith("--out=")) {
+                output = value;
+            } else if (arg.startsWith("--traces=")) {
+                traceDir = Files.createDirectories(Paths.get(value));
+            } else {
+                System.err.println("Unknown option: " + arg);
+                System.exit(1);
+            }
+        }
+        if (repeats < 1 || parallelism < 1 || modes.isEmpty() || strategies.isEmpty()
+                || Arrays.stream(chunkSizes).anyMatch(c -> c < 1) || Arrays.stream(ssthreshes).anyMatch(t -> t < 2)) {
+            System.err.println("Invalid sweep parameters");
+            System.exit(1);
+        }
+
+        // The seed depends on (loss, ssthresh, chunk, repeat) only, so every mode and strategy at a grid
+        // point draws from the same loss sequence and the CSV compares them, not their luck
+        List<Config> configs = new ArrayList<>();
+        long point = 0;
+        for (double loss : losses)
+            for (int ssthresh : ssthreshes)
+                for (int chunk : chunkSizes) {
+                    for (client.Mode mode : modes)
+                        for (boolean selective : strategies)
+                            for (int r = 0; r < repeats; r++)
+                                configs.add(new Config(mode, selective, loss, ssthresh, chunk, seed + point * repeats + r));
+                    point++;
+                }
+
+        ExperimentRunner runner = new ExperimentRunner(Files.readAllBytes(Paths.get(file)), traceDir);
+        System.out.printf("[Sweep] %d runs of %s, %d at a time%n", configs.size(), file, parallelism);
+        long start = System.nanoTime();
+        List<Result> results = runner.sweep(configs, parallelism);
+        runner.writeCsv(results, Paths.get(output));
+        System.out.printf("[Sweep] Done in %.1f s, results in %s%n", (System.nanoTime() - start) / 1e9, output);
+        summarize(results);
+    }
+}
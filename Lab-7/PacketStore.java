@@ -0,0 +1,107 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+/**
+ * The file to send, addressed by packet seq (1-based) over one contiguous backing store: either
+ * the caller's byte array or a read-only memory mapping of the file. Packet seq is the chunkSize
+ * bytes at (seq - 1) * chunkSize, the last one shorter, so a lookup is arithmetic and nothing is
+ * copied or boxed when the file is sliced.
+ *
+ * Files larger than one mapping (2 GB) are mapped in segments holding a whole number of packets,
+ * so a packet never straddles two segments. writeTo() reuses one scratch chunk for mapped data;
+ * a store is meant to be used by a single sender thread.
+ */
+public final class PacketStore {
+
+    private static final long MAX_SEGMENT = Integer.MAX_VALUE;
+
+    private final byte[] array; // Heap store, or null when mapped
+    private final MappedByteBuffer[] segments; // Mapped store, or null
+    private final int packetsPerSegment;
+    private final long length;
+    private final int chunkSize;
+    private final int packets;
+    private final byte[] scratch;
+
+    private PacketStore(byte[] array, MappedByteBuffer[] segments, int packetsPerSegment, long length, int chunkSize) {
+        if (chunkSize < 1) throw new IllegalArgumentException("chunk size must be positive: " + chunkSize);
+        long count = (length + chunkSize - 1) / chunkSize;
+        if (count > Integer.MAX_VALUE - 1) throw new IllegalArgumentException(count + " packets do not fit an int seq");
+        this.array = array;
+        this.segments = segments;
+        this.packetsPerSegment = packetsPerSegment;
+        this.length = length;
+        this.chunkSize = chunkSize;
+        this.packets = (int) count;
+        this.scratch = segments != null ? new byte[chunkSize] : null;
+    }
+
+    /** Packets over a byte array the caller must not modify while sending. */
+    public static PacketStore wrap(byte[] data, int chunkSize) {
+        return new PacketStore(data, null, 0, data.length, chunkSize);
+    }
+
+    /** Packets over a read-only mapping of the file; pages are read in by the OS as they are sent. */
+    public static PacketStore map(Path path, int chunkSize) throws IOException {
+        if (chunkSize < 1) throw new IllegalArgumentException("chunk size must be positive: " + chunkSize);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int perSegment = (int) Math.max(1, MAX_SEGMENT / chunkSize);
+            long segmentBytes = (long) perSegment * chunkSize;
+            int count = (int) Math.max(1, (size + segmentBytes - 1) / segmentBytes);
+            MappedByteBuffer[] segments = new MappedByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                long offset = i * segmentBytes;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(segmentBytes, size - offset));
+            }
+            return new PacketStore(null, segments, perSegment, size, chunkSize); // The mapping outlives the channel
+        }
+    }
+
+    public int size() {
+        return packets;
+    }
+
+    public long length() {
+        return length;
+    }
+
+    public int length(int seq) {
+        checkSeq(seq);
+        return (int) Math.min(chunkSize, length - (long) (seq - 1) * chunkSize);
+    }
+
+    /** A read-only view of packet seq. No data is copied. */
+    public ByteBuffer packet(int seq) {
+        int len = length(seq);
+        if (array != null) {
+            return ByteBuffer.wrap(array, (seq - 1) * chunkSize, len).slice().asReadOnlyBuffer();
+        }
+        int index = (seq - 1) / packetsPerSegment;
+        int offset = ((seq - 1) % packetsPerSegment) * chunkSize;
+        return segments[index].slice(offset, len).asReadOnlyBuffer();
+    }
+
+    /** Writes packet seq to out without allocating; returns its length. */
+    public int writeTo(int seq, OutputStream out) throws IOException {
+        int len = length(seq);
+        if (array != null) {
+            out.write(array, (seq - 1) * chunkSize, len);
+        } else {
+            int index = (seq - 1) / packetsPerSegment;
+            int offset = ((seq - 1) % packetsPerSegment) * chunkSize;
+            segments[index].get(offset, scratch, 0, len);
+            out.write(scratch, 0, len);
+        }
+        return len;
+    }
+
+    private void checkSeq(int seq) {
+        if (seq < 1 || seq > packets) {
+            throw new IndexOutOfBoundsException("packet " + seq + " outside 1.." + packets);
+        }
+    }
+}
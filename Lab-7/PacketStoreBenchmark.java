@@ -0,0 +1,144 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Compares the old TreeMap<Integer, byte[]> slicing of the client with {@link PacketStore} over
+ * a heap array and over a memory mapping: time and bytes allocated to slice the file, then to
+ * look up and write random packets, the access pattern of retransmissions.
+ *
+ * Usage: java -Xmx2g PacketStoreBenchmark [--size=MB] [--chunk=N] [--lookups=N] [--file=PATH]
+ *
+ * Without --file a random file of the given size is created in the temp directory and deleted
+ * afterwards. Allocation is measured per thread, so it is exact and unaffected by GC timing.
+ */
+public class PacketStoreBenchmark {
+
+    private static final int SIZE_MB = 128;
+    private static final int CHUNK_SIZE = 1024;
+    private static final int LOOKUPS = 5_000_000;
+    private static final int ROUNDS = 3; // Lookup passes per store; the best one is reported
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private static final OutputStream SINK = OutputStream.nullOutputStream();
+    private static volatile long blackhole; // Keeps the lookup loops from being optimized away
+
+    private interface Store {
+        int size();
+        int writeTo(int seq) throws IOException;
+    }
+
+    private static long allocated() {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static Store treeMap(byte[] allBytes, int chunkSize) {
+        // The client's former sliceFile()
+        Map<Integer, byte[]> filePackets = new TreeMap<>();
+        for (int i = 0, seq = 1; i < allBytes.length; i += chunkSize, seq++) {
+            int len = Math.min(chunkSize, allBytes.length - i);
+            filePackets.put(seq, Arrays.copyOfRange(allBytes, i, i + len));
+        }
+        return new Store() {
+            public int size() {
+                return filePackets.size();
+            }
+
+            public int writeTo(int seq) throws IOException {
+                byte[] data = filePackets.get(seq);
+                SINK.write(data);
+                return data.length;
+            }
+        };
+    }
+
+    private static Store packetStore(PacketStore packets) {
+        return new Store() {
+            public int size() {
+                return packets.size();
+            }
+
+            public int writeTo(int seq) throws IOException {
+                return packets.writeTo(seq, SINK);
+            }
+        };
+    }
+
+    private interface Loader {
+        Store load() throws IOException;
+    }
+
+    private static void measure(String name, Loader loader, int[] seqs) throws IOException {
+        System.gc();
+        long a0 = allocated(), t0 = System.nanoTime();
+        Store store = loader.load();
+        long sliceNs = System.nanoTime() - t0, sliceBytes = allocated() - a0;
+
+        long bestNs = Long.MAX_VALUE, lookupBytes = 0, checksum = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            a0 = allocated();
+            t0 = System.nanoTime();
+            for (int seq : seqs) {
+                checksum += store.writeTo(seq);
+            }
+            long ns = System.nanoTime() - t0;
+            if (ns < bestNs) {
+                bestNs = ns;
+                lookupBytes = allocated() - a0;
+            }
+        }
+        blackhole = checksum;
+        System.out.printf("%-19s slice %7.1f ms, %,13d B allocated | lookup %5.1f ns, %5.1f B allocated per packet%n",
+                name, sliceNs / 1e6, sliceBytes, (double) bestNs / seqs.length, (double) lookupBytes / seqs.length);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int sizeMb = SIZE_MB, chunkSize = CHUNK_SIZE, lookups = LOOKUPS;
+        Path file = null;
+        for (String arg : args) {
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith("--size=")) {
+                sizeMb = Integer.parseInt(value);
+            } else if (arg.startsWith("--chunk=")) {
+                chunkSize = Integer.parseInt(value);
+            } else if (arg.startsWith("--lookups=")) {
+                lookups = Integer.parseInt(value);
+            } else if (arg.startsWith("--file=")) {
+                file = Paths.get(value);
+            } else {
+                System.err.println("Unknown option: " + arg);
+                System.exit(1);
+            }
+        }
+
+        boolean temporary = file == null;
+        if (temporary) {
+            file = Files.createTempFile("packetstore", ".bin");
+            byte[] block = new byte[1 << 20];
+            Random random = new Random(1);
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+                for (int i = 0; i < sizeMb; i++) {
+                    random.nextBytes(block);
+                    out.write(block);
+                }
+            }
+        }
+        try {
+            Path path = file;
+            int chunk = chunkSize;
+            long packets = (Files.size(path) + chunk - 1) / chunk;
+            int[] seqs = new Random(2).ints(lookups, 1, (int) packets + 1).toArray();
+            System.out.printf("%,d bytes in %,d packets of %d, %,d random lookups%n%n",
+                    Files.size(path), packets, chunk, lookups);
+
+            // Each loader reads the file itself, as the client's run() would
+            measure("TreeMap<seq,byte[]>", () -> treeMap(Files.readAllBytes(path), chunk), seqs);
+            measure("PacketStore.wrap", () -> packetStore(PacketStore.wrap(Files.readAllBytes(path), chunk)), seqs);
+            measure("PacketStore.map", () -> packetStore(PacketStore.map(path, chunk)), seqs);
+        } finally {
+            if (temporary) Files.deleteIfExists(file);
+        }
+    }
+}
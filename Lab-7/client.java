@@ -2,6 +2,7 @@ import java.io.*;
 import java.net.*;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.stream.Collectors;
 
 public class client {
@@ -11,28 +12,98 @@ public class client {
     private static final String FILE_TO_SEND = "Board.jpeg";
     private static final int CHUNK_SIZE = 1024;
     private static final int INITIAL_SSTHRESH = 64;
-    private static final int TIMEOUT_MS = 500;
+    // Retransmission timer (RFC 6298): srtt + 4 * rttvar, clamped, doubled on every timeout
+    private static final long INITIAL_RTO_MS = 500;
+    private static final long MIN_RTO_MS = 5;
+    private static final long MAX_RTO_MS = 5000;
+    private static final double ALPHA = 0.125;
+    private static final double BETA = 0.25;
 
-    private enum Mode { TAHOE, RENO }
+    enum Mode { TAHOE, RENO }
 
     private final Mode mode;
+    private final boolean selective;
+    private final String host;
+    private final int port;
+    private final int chunkSize;
+    private PrintStream console = System.out;
     private Socket sock;
     private DataInputStream in;
     private DataOutputStream out;
     private PrintWriter logWriter;
+    private CwndTraceWriter trace; // Binary per-round trace, closed with the connection
 
     private int cwnd = 1;
-    private int ssthresh = INITIAL_SSTHRESH;
+    private int ssthresh;
     private int base = 1;
     private int nextSeq = 1;
     private int lastAck = 0;
     private int duplicateAcks = 0;
     private boolean inFastRecovery = false;
 
-    private final Map<Integer, byte[]> filePackets = new TreeMap<>();
+    private PacketStore filePackets;
 
-    public client(Mode mode) {
+    // Per-packet state. The server echoes the seq of every packet it accepts next to the
+    // cumulative ACK, so sacked holds exactly what it has; lost holds holes still to resend.
+    private final BitSet transmitted = new BitSet();
+    private final BitSet sacked = new BitSet();
+    private final BitSet lost = new BitSet();
+
+    // ACKs as the ack-reader thread received them; CLOSED marks the end of the stream
+    private static final class Ack {
+        final int ack;
+        final int received;
+        final long nanos;
+
+        Ack(int ack, int received, long nanos) {
+            this.ack = ack;
+            this.received = received;
+            this.nanos = nanos;
+        }
+    }
+
+    private static final Ack CLOSED = new Ack(-1, -1, 0);
+
+    private final BlockingQueue<Ack> acks = new LinkedBlockingQueue<>();
+    private volatile IOException readerError;
+
+    // RTT estimation (nanoseconds). Only packets sent once give samples (Karn).
+    private long[] sendTimes;
+    private final BitSet retransmitted = new BitSet();
+    private double srtt = 0;
+    private double rttvar = 0;
+    private boolean rttSampled = false;
+    private long rto = TimeUnit.MILLISECONDS.toNanos(INITIAL_RTO_MS);
+
+    private long bytesSent = 0;
+    private long retransmittedBytes = 0;
+    private int rounds = 0;
+    private int timeouts = 0;
+    private int fastRetransmits = 0;
+    private long elapsedMs = 0;
+    private final List<Integer> cwndHistory = new ArrayList<>(); // cwnd at the start of each round
+
+    public client(Mode mode, boolean selective) {
+        this(mode, selective, HOST, PORT, CHUNK_SIZE, INITIAL_SSTHRESH);
+    }
+
+    public client(Mode mode, boolean selective, String host, int port, int chunkSize, int initialSsthresh) {
         this.mode = mode;
+        this.selective = selective;
+        this.host = host;
+        this.port = port;
+        this.chunkSize = chunkSize;
+        this.ssthresh = initialSsthresh;
+    }
+
+    /** Records every round of the next send() to the given trace, which shutdown() closes. */
+    public void setTrace(CwndTraceWriter trace) {
+        this.trace = trace;
+    }
+
+    /** Silences the per-round trace, for batch runs such as {@link ExperimentRunner}. */
+    public void setQuiet(boolean quiet) {
+        this.console = quiet ? new PrintStream(OutputStream.nullOutputStream()) : System.out;
     }
 
     public static void main(String[] args) {
@@ -50,82 +121,209 @@ public class client {
         System.out.print("Enter choice (1 or 2): ");
         int choice = scanner.nextInt();
         Mode selectedMode = (choice == 2) ? Mode.RENO : Mode.TAHOE;
+        System.out.println("Select Retransmission Strategy:");
+        System.out.println("1. Go-Back-N");
+        System.out.println("2. Selective Repeat");
+        System.out.print("Enter choice (1 or 2): ");
+        boolean selective = scanner.nextInt() == 2;
         scanner.close();
 
         try {
-            new client(selectedMode).run();
+            new client(selectedMode, selective).run();
         } catch (IOException e) {
             System.err.println("\nClient error: " + e.getMessage());
         }
     }
 
     public void run() throws IOException {
+        PacketStore packets = PacketStore.map(Paths.get(FILE_TO_SEND), chunkSize);
+        String logFileName = ((mode == Mode.TAHOE) ? "tahoe" : "reno") + (selective ? "_sr.txt" : ".txt");
+        this.logWriter = new PrintWriter(new FileWriter(logFileName, false)); // Overwrite log
+        console.println("Logging congestion window sizes to " + logFileName);
+        String traceFileName = logFileName.replace(".txt", ".cwnd");
+        this.trace = new CwndTraceWriter(Paths.get(traceFileName));
+        console.println("Recording round trace to " + traceFileName + " (java CwndTraceSummary " + traceFileName + ")");
+        console.println("Preparing to send " + FILE_TO_SEND);
+        send(packets);
+    }
+
+    public void send(byte[] fileBytes) throws IOException {
+        send(PacketStore.wrap(fileBytes, chunkSize));
+    }
+
+    /** Sends one file over a fresh connection; the cwnd log is written only if run() opened it. */
+    public void send(PacketStore packets) throws IOException {
         connect();
-        sliceFile();
+        filePackets = packets;
+        console.printf("File sliced into %d packets.%n", filePackets.size());
         int totalPkts = filePackets.size();
-        sock.setSoTimeout(TIMEOUT_MS);
-
-        String logFileName = (mode == Mode.TAHOE) ? "tahoe.txt" : "reno.txt";
-        this.logWriter = new PrintWriter(new FileWriter(logFileName, false)); // Overwrite log
-        System.out.println("Logging congestion window sizes to " + logFileName);
+        sendTimes = new long[totalPkts + 1];
+        Thread reader = new Thread(this::readAcks, "ack-reader");
+        reader.setDaemon(true);
+        reader.start();
 
-        System.out.println("\n== TCP " + mode.name().toUpperCase() + " Mode ==");
+        console.println("\n== TCP " + mode.name().toUpperCase() + " Mode, "
+                + (selective ? "Selective Repeat" : "Go-Back-N") + " ==");
+        long start = System.currentTimeMillis();
+        long startNanos = System.nanoTime();
 
         for (int round = 1; base <= totalPkts; round++) {
-            System.out.printf("\nRound %d: cwnd = %d, ssthresh = %d%n", round, cwnd, ssthresh);
-            
-            logWriter.printf("%d : %d%n", round, cwnd);
+            console.printf("\nRound %d: cwnd = %d, ssthresh = %d, rto = %.2f ms%n", round, cwnd, ssthresh, rto / 1e6);
+            rounds = round;
+            cwndHistory.add(cwnd);
+            if (logWriter != null) {
+                logWriter.printf("%d : %d%n", round, cwnd);
+            }
+            long roundStart = System.nanoTime();
+            long firstAck = 0;
+            int roundCwnd = cwnd, roundSsthresh = ssthresh;
+            int fastRetransmitsBefore = fastRetransmits, timeoutsBefore = timeouts;
 
-            // Send Phase
+            // Send Phase: holes from earlier rounds go first, then new packets
             List<Integer> sentInRound = new ArrayList<>();
-            while ((nextSeq - base) < cwnd && nextSeq <= totalPkts) {
+            for (int s = lost.nextSetBit(base); s >= 0 && sentInRound.size() < cwnd; s = lost.nextSetBit(s + 1)) {
+                transmit(s);
+                lost.clear(s);
+                sentInRound.add(s);
+            }
+            while ((nextSeq - base) < cwnd && nextSeq <= totalPkts && sentInRound.size() < cwnd) {
                 transmit(nextSeq);
                 sentInRound.add(nextSeq);
                 nextSeq++;
             }
+            out.flush();
             if (!sentInRound.isEmpty()) {
-                System.out.println("Sent packets: " + sentInRound.stream().map(s -> "pkt" + s).collect(Collectors.joining(", ")));
+                console.println("Sent packets: " + sentInRound.stream().map(s -> "pkt" + s).collect(Collectors.joining(", ")));
             }
 
-            // ACK Phase
+            // ACK Phase: until this round's packets are acknowledged, a loss is detected or the RTO fires.
+            // Rounds wait for their own packets rather than for a number of ACKs, so an ACK that
+            // arrives after its round timed out cannot stand in for one of the next round's.
             boolean lossDetected = false;
-            int acksToReceive = nextSeq - base;
-            for (int i = 0; i < acksToReceive; i++) {
+            BitSet waiting = new BitSet(); // Selective repeat: packets of this round not yet echoed
+            for (int s : sentInRound) waiting.set(s);
+            while (selective ? !waiting.isEmpty() : base < nextSeq) {
                 try {
-                    int ack = in.readInt();
-                    lossDetected = handleAck(ack);
-                    if (lossDetected) break;
+                    Ack a = awaitAck();
+                    int ack = a.ack;
+                    int received = a.received;
+                    if (firstAck == 0) firstAck = a.nanos;
+                    if (received > 0 && received <= totalPkts && !retransmitted.get(received)) {
+                        updateRtt(a.nanos - sendTimes[received]);
+                    }
+                    sacked.set(received);
+                    waiting.clear(received);
+                    console.println("Received: ACK:pkt" + ack + " (has pkt" + received + ")");
+                    if (!selective) {
+                        lossDetected = handleAck(ack);
+                        if (lossDetected) break;
+                    } else {
+                        List<Integer> resent = handleSelectiveAck(ack, lossDetected);
+                        lossDetected |= !resent.isEmpty();
+                        for (int s : resent) waiting.set(s);
+                    }
                 } catch (SocketTimeoutException e) {
-                    System.out.println("==> Timeout waiting for ACK! <===");
-                    lossDetected = handleTimeout();
+                    console.printf("==> Timeout waiting for ACK (rto %.2f ms)! <===%n", rto / 1e6);
+                    rto = Math.min(rto * 2, TimeUnit.MILLISECONDS.toNanos(MAX_RTO_MS)); // Back off until a fresh sample
+                    if (!selective) {
+                        lossDetected = handleTimeout();
+                    } else if (!lossDetected) {
+                        lossDetected = handleSelectiveTimeout();
+                    }
                     break;
                 }
             }
+            if (selective) {
+                // Whatever this round sent and the server still lacks is resent next round.
+                for (int s = sacked.nextClearBit(base); s < nextSeq; s = sacked.nextClearBit(s + 1)) {
+                    lost.set(s);
+                }
+            }
 
             // Congestion Control Update Phase
             if (!lossDetected) {
                 if (cwnd < ssthresh) {
                     cwnd *= 2;
-                    System.out.println("Slow Start: cwnd -> " + cwnd);
+                    console.println("Slow Start: cwnd -> " + cwnd);
                 } else {
                     cwnd += 1;
-                    System.out.println("Congestion Avoidance: cwnd -> " + cwnd);
+                    console.println("Congestion Avoidance: cwnd -> " + cwnd);
                 }
             }
+
+            if (trace != null) {
+                int events = (fastRetransmits > fastRetransmitsBefore ? CwndTraceWriter.EVENT_FAST_RETRANSMIT : 0)
+                        | (timeouts > timeoutsBefore ? CwndTraceWriter.EVENT_TIMEOUT : 0);
+                int rttMicros = firstAck > 0 ? (int) ((firstAck - roundStart) / 1000) : 0;
+                trace.record(round, (roundStart - startNanos) / 1000, roundCwnd, roundSsthresh, rttMicros, events);
+            }
         }
+        elapsedMs = System.currentTimeMillis() - start;
+        console.printf("%nSent %d bytes in %d ms, %d of them retransmitted, srtt %.3f ms%n",
+                bytesSent, elapsedMs, retransmittedBytes, srtt / 1e6);
         shutdown();
     }
 
     private void transmit(int seq) throws IOException {
         out.writeInt(seq);
-        byte[] data = filePackets.get(seq);
-        out.writeInt(data.length);
-        out.write(data);
-        out.flush();
+        int len = filePackets.length(seq);
+        bytesSent += len;
+        if (transmitted.get(seq)) {
+            retransmittedBytes += len;
+            retransmitted.set(seq);
+        }
+        transmitted.set(seq);
+        sendTimes[seq] = System.nanoTime();
+        out.writeInt(len);
+        filePackets.writeTo(seq, out); // Buffered; callers flush once per burst
+    }
+
+    /** Reads ACK pairs off the socket as they arrive, so the sender never blocks in a read. */
+    private void readAcks() {
+        try {
+            while (true) {
+                int ack = in.readInt();
+                int received = in.readInt();
+                acks.add(new Ack(ack, received, System.nanoTime()));
+            }
+        } catch (IOException e) {
+            readerError = e; // EOF or the socket closed by shutdown()
+        } finally {
+            acks.add(CLOSED);
+        }
+    }
+
+    /** The next ACK, or SocketTimeoutException if none arrives within the current RTO. */
+    private Ack awaitAck() throws IOException {
+        Ack a;
+        try {
+            a = acks.poll(rto, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for an ACK");
+        }
+        if (a == null) throw new SocketTimeoutException("No ACK within " + rto / 1_000_000 + " ms");
+        if (a == CLOSED) {
+            acks.add(CLOSED); // Later calls fail the same way
+            throw new IOException("Connection closed while waiting for an ACK", readerError);
+        }
+        return a;
+    }
+
+    private void updateRtt(long sample) {
+        if (!rttSampled) {
+            srtt = sample;
+            rttvar = sample / 2.0;
+            rttSampled = true;
+        } else {
+            rttvar = (1 - BETA) * rttvar + BETA * Math.abs(sample - srtt);
+            srtt = (1 - ALPHA) * srtt + ALPHA * sample;
+        }
+        rto = Math.min(Math.max((long) (srtt + 4 * rttvar), TimeUnit.MILLISECONDS.toNanos(MIN_RTO_MS)),
+                TimeUnit.MILLISECONDS.toNanos(MAX_RTO_MS));
     }
 
     private boolean handleAck(int ack) throws IOException {
-        System.out.println("Received: ACK:pkt" + ack);
         if (ack > lastAck) { // New ACK
             base = ack + 1;
             lastAck = ack;
@@ -138,18 +336,11 @@ public class client {
         } else { // Duplicate ACK
             duplicateAcks++;
             if (duplicateAcks == 3) {
-                System.out.println("==> 3 Duplicate ACKs: Fast Retransmit triggered.");
-                ssthresh = Math.max(cwnd / 2, 2);
+                console.println("==> 3 Duplicate ACKs: Fast Retransmit triggered.");
+                fastRetransmits++;
                 transmit(ack + 1); // Fast Retransmit
-                
-                if (mode == Mode.TAHOE) {
-                    cwnd = 1;
-                    System.out.println("TCP TAHOE Reset: cwnd -> 1");
-                } else { 
-                    cwnd = ssthresh;
-                    // inFastRecovery = true;
-                    System.out.println("TCP RENO Action: ssthresh -> " + ssthresh + ", cwnd -> " + cwnd);
-                }
+                out.flush();
+                reduceWindow();
                 nextSeq = base;
                 return true;
             }
@@ -157,42 +348,106 @@ public class client {
         }
     }
 
+    /**
+     * Selective-repeat counterpart of handleAck: on the third duplicate ACK only the holes
+     * below the highest packet the server holds are resent, and nextSeq stays where it is.
+     * The channel is FIFO, so a packet missing below one that arrived was dropped.
+     * Holes are repaired once per round; later ones wait for the next send phase.
+     * Returns the packets resent, each of which will be ACKed in this round.
+     */
+    private List<Integer> handleSelectiveAck(int ack, boolean recovering) throws IOException {
+        if (ack > lastAck) { // New ACK
+            base = ack + 1;
+            lastAck = ack;
+            duplicateAcks = 0;
+            return Collections.emptyList();
+        }
+        duplicateAcks++;
+        if (duplicateAcks != 3 || recovering) return Collections.emptyList();
+
+        int highest = sacked.length() - 1;
+        List<Integer> holes = new ArrayList<>();
+        for (int s = sacked.nextClearBit(base); s < highest; s = sacked.nextClearBit(s + 1)) {
+            holes.add(s);
+        }
+        if (holes.isEmpty()) return holes;
+
+        console.println("==> 3 Duplicate ACKs: Selective Retransmit of missing packets.");
+        fastRetransmits++;
+        for (int s : holes) {
+            transmit(s);
+            lost.clear(s);
+        }
+        out.flush();
+        console.println("Resent packets: " + holes.stream().map(s -> "pkt" + s).collect(Collectors.joining(", ")));
+        reduceWindow();
+        return holes;
+    }
+
+    private void reduceWindow() {
+        ssthresh = Math.max(cwnd / 2, 2);
+        if (mode == Mode.TAHOE) {
+            cwnd = 1;
+            console.println("TCP TAHOE Reset: cwnd -> 1");
+        } else {
+            cwnd = ssthresh;
+            // inFastRecovery = true;
+            console.println("TCP RENO Action: ssthresh -> " + ssthresh + ", cwnd -> " + cwnd);
+        }
+    }
+
     private boolean handleTimeout() throws IOException {
         ssthresh = Math.max(cwnd / 2, 2);
         cwnd = 1;
         duplicateAcks = 0;
+        timeouts++;
         inFastRecovery = false;
-        System.out.println("TCP " + mode.name().toUpperCase() + " Timeout Reset: cwnd -> 1");
+        console.println("TCP " + mode.name().toUpperCase() + " Timeout Reset: cwnd -> 1");
         transmit(base);
+        out.flush();
         nextSeq = base + 1;
         return true;
     }
 
-    private void connect() throws IOException {
-        sock = new Socket(HOST, PORT);
-        in = new DataInputStream(sock.getInputStream());
-        out = new DataOutputStream(sock.getOutputStream());
-        System.out.println("Connected to server. Preparing to send " + FILE_TO_SEND);
+    /** Like handleTimeout, but the unacknowledged packets are resent next round, not rewound. */
+    private boolean handleSelectiveTimeout() {
+        ssthresh = Math.max(cwnd / 2, 2);
+        cwnd = 1;
+        duplicateAcks = 0;
+        timeouts++;
+        console.println("TCP " + mode.name().toUpperCase() + " Timeout Reset: cwnd -> 1");
+        return true;
     }
 
-    private void sliceFile() throws IOException {
-        byte[] allBytes = Files.readAllBytes(Paths.get(FILE_TO_SEND));
-        for (int i = 0, seq = 1; i < allBytes.length; i += CHUNK_SIZE, seq++) {
-            int len = Math.min(CHUNK_SIZE, allBytes.length - i);
-            filePackets.put(seq, Arrays.copyOfRange(allBytes, i, i + len));
-        }
-        System.out.printf("File sliced into %d packets.%n", filePackets.size());
+    private void connect() throws IOException {
+        sock = new Socket(host, port);
+        sock.setTcpNoDelay(true); // Each burst is flushed whole; Nagle would hold it for the previous ACK
+        in = new DataInputStream(new BufferedInputStream(sock.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(sock.getOutputStream()));
+        console.println("Connected to server.");
     }
 
     private void shutdown() throws IOException {
-        System.out.println("\nFile transfer complete.");
+        console.println("\nFile transfer complete.");
         out.writeInt(-1); // Signal EOF
         out.flush();
         
         if (logWriter != null) {
             logWriter.close();
         }
+        if (trace != null) {
+            trace.close();
+        }
 
         if (sock != null) sock.close();
     }
+
+    // --- Results of the last send(), read by ExperimentRunner ---
+    public int getRounds() { return rounds; }
+    public long getElapsedMs() { return elapsedMs; }
+    public long getBytesSent() { return bytesSent; }
+    public long getRetransmittedBytes() { return retransmittedBytes; }
+    public int getTimeouts() { return timeouts; }
+    public int getFastRetransmits() { return fastRetransmits; }
+    public List<Integer> getCwndHistory() { return cwndHistory; }
 }
\ No newline at end of file
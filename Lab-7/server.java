@@ -13,26 +13,41 @@ public class server {
             while (true) {
                 Socket s = ss.accept();
                 System.out.printf("\n[Server] Client connected (%s)%n", s.getInetAddress().getHostAddress());
-                new Thread(new ClientHandler(s)).start();
+                new Thread(new ClientHandler(s, p, new Random(), new FileOutputStream("received_Board.jpeg"),
+                        System.out)).start();
             }
         } catch (IOException e) {
             System.err.println("[Server] Fatal error: " + e.getMessage());
         }
     }
 
-    private static final class ClientHandler implements Runnable {
+    /** One transfer. Also driven in-process by {@link ExperimentRunner}, with its own loss rate and sink. */
+    static final class ClientHandler implements Runnable {
         private final Socket socket;
-        private final Random random = new Random();
+        private final double lossRate;
+        private final Random random;
+        private final OutputStream sink;
+        private final PrintStream console;
+        private long duplicateBytes = 0; // copies of packets that were already here
 
-        ClientHandler(Socket socket) {
+        ClientHandler(Socket socket, double lossRate, Random random, OutputStream sink, PrintStream console) {
             this.socket = socket;
+            this.lossRate = lossRate;
+            this.random = random;
+            this.sink = sink;
+            this.console = console;
+        }
+
+        long getDuplicateBytes() {
+            return duplicateBytes;
         }
 
         @Override
         public void run() {
             try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
                  DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
-                 FileOutputStream fos = new FileOutputStream("received_Board.jpeg")) {
+                 OutputStream fos = sink) {
+                socket.setTcpNoDelay(true); // One ACK per packet; Nagle would hold each behind the last
 
                 int expectedSeq = 1;
                 Map<Integer, byte[]> outOfOrderBuffer = new TreeMap<>();
@@ -42,11 +57,11 @@ public class server {
                     try {
                         seq = in.readInt();
                         if (seq == -1) { // EOF signal
-                            System.out.println("[Server] Client signaled end of transfer.");
+                            console.println("[Server] Client signaled end of transfer.");
                             break;
                         }
                     } catch (EOFException e) {
-                        System.out.println("[Server] Client closed connection.");
+                        console.println("[Server] Client closed connection.");
                         break;
                     }
 
@@ -55,12 +70,12 @@ public class server {
                     in.readFully(data);
 
                     // Simulate packet drop
-                    if (random.nextDouble() < p) {
-                        System.out.printf("[Server] Dropped incoming packet %d (simulated)%n", seq);
+                    if (random.nextDouble() < lossRate) {
+                        console.printf("[Server] Dropped incoming packet %d (simulated)%n", seq);
                         continue;
                     }
 
-                    System.out.printf("[Server] Received packet %d%n", seq);
+                    console.printf("[Server] Received packet %d%n", seq);
 
                     if (seq == expectedSeq) {
                         fos.write(data);
@@ -68,30 +83,38 @@ public class server {
                         while (outOfOrderBuffer.containsKey(expectedSeq)) {
                             byte[] bufferedData = outOfOrderBuffer.remove(expectedSeq);
                             fos.write(bufferedData);
-                            System.out.printf("[Server] Wrote buffered packet %d from memory%n", expectedSeq);
+                            console.printf("[Server] Wrote buffered packet %d from memory%n", expectedSeq);
                             expectedSeq++;
                         }
                     } else if (seq > expectedSeq) {
                         if (!outOfOrderBuffer.containsKey(seq)) {
                             outOfOrderBuffer.put(seq, data);
-                            System.out.printf("[Server] Buffered out-of-order packet %d%n", seq);
+                            console.printf("[Server] Buffered out-of-order packet %d%n", seq);
+                        } else {
+                            duplicateBytes += len;
                         }
+                    } else {
+                        duplicateBytes += len;
                     }
                     
+                    // Cumulative ACK plus the seq just received, so the client can track
+                    // which packets above the gap are already here.
                     int ackToSend = expectedSeq - 1;
                     out.writeInt(ackToSend);
+                    out.writeInt(seq);
                     out.flush();
-                    System.out.printf("[Server] -> Sent ACK for pkt%d%n", ackToSend);
+                    console.printf("[Server] -> Sent ACK for pkt%d%n", ackToSend);
                 }
-                System.out.println("[Server] File received successfully and saved as 'received_Board.jpeg'");
+                console.println("[Server] File received successfully and saved as 'received_Board.jpeg'");
+                console.printf("[Server] Redundant bytes received (duplicates of packets already held): %d%n", duplicateBytes);
 
             } catch (IOException ioe) {
-                System.err.printf("[Server] I/O error: %s%n", ioe.getMessage());
+                console.printf("[Server] I/O error: %s%n", ioe.getMessage());
             } finally {
                 try {
                     socket.close();
                 } catch (IOException ignored) {}
-                System.out.println("[Server] Handler terminated.");
+                console.println("[Server] Handler terminated.");
             }
         }
     }
@@ -6,7 +6,7 @@ import java.util.concurrent.*;
 
 public class Client {
 
-    private static final int    CHUNK_SIZE   = 1024;          // bytes / packet
+    private static final int    CHUNK_SIZE   = 1024;          // default bytes / packet, the server's minimum
     private static final int    WINDOW_SIZE  = 4;             // packets in flight
     private static final double ALPHA        = 0.125;         // EWMA
     private static final double BETA         = 0.25;          // EWMA
@@ -15,13 +15,49 @@ public class Client {
 
 
     private static final class Packet {
-        final int    seq;
+        int          seq;
         final byte[] data;
+        int          len;
         long         sendTime;                                
 
-        Packet(int seq, byte[] data) {
-            this.seq  = seq;
-            this.data = data;
+        Packet(int capacity) {
+            this.data = new byte[capacity];
+        }
+    }
+
+    /* ---------- send buffer ------------------------------------------- */
+    // circular array of un-ACKed packets indexed by seq; slots are recycled,
+    // so releasing ACKed packets is O(acked) and sending allocates nothing
+    private static final class SendBuffer {
+        private final Packet[] slots;
+        private final int      mask;
+        private int head = 1;                                 // oldest seq held
+        private int tail = 1;                                 // one past newest
+
+        SendBuffer(int capacity, int chunkSize) {
+            int cap = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+            slots = new Packet[cap];
+            for (int i = 0; i < cap; i++) slots[i] = new Packet(chunkSize);
+            mask = cap - 1;
+        }
+
+        Packet add(int seq) {
+            if (seq != tail || tail - head == slots.length)
+                throw new IllegalStateException("Send buffer cannot take seq " + seq);
+            Packet p = slots[seq & mask];
+            p.seq = seq;
+            p.len = 0;
+            tail++;
+            return p;
+        }
+
+        Packet get(int seq) {
+            return (seq >= head && seq < tail) ? slots[seq & mask] : null;
+        }
+
+        void release(int ack) {
+            int upTo = Math.min(ack + 1, tail);
+            if (upTo > head) head = upTo;
         }
     }
 
@@ -36,7 +72,9 @@ public class Client {
     // sliding window pointers
     private volatile int base      = 1;                       // oldest un-ACKed
     private int           nextSeq  = 1;                       // next unsent
-    private final Map<Integer, Packet> buffer = new ConcurrentHashMap<>();
+    private int              chunkSize;                       // agreed with the server
+    private SendBuffer       buffer;                          // built once chunkSize is agreed
+    private byte[]           fileBytes;
 
     // RTT / RTO
     private double estRtt = INIT_RTT_MS;
@@ -52,10 +90,11 @@ public class Client {
     private ScheduledFuture<?>              timerHandle;
 
     /* ---------- ctor ---------------------------------------------------- */
-    public Client(String host, int port, Path file) {
+    public Client(String host, int port, Path file, int chunkSize) {
         this.host = host;
         this.port = port;
         this.file = file;
+        this.chunkSize = chunkSize;
     }
 
     /* ---------- main logic --------------------------------------------- */
@@ -63,8 +102,7 @@ public class Client {
         connect();
         sendFileName();
 
-        List<Packet> packets = sliceFile();
-        int totalPkts        = packets.size();
+        int totalPkts = sliceFile();
 
         // start ACK-receiver thread
         Thread ackThread = new Thread(this::ackReceiver, "ack-rx");
@@ -75,8 +113,7 @@ public class Client {
 
             // fill window
             while (nextSeq < base + WINDOW_SIZE && nextSeq <= totalPkts) {
-                Packet p = packets.get(nextSeq - 1);
-                transmit(p, false);
+                sendNew(nextSeq);
                 nextSeq++;
             }
 
@@ -94,10 +131,18 @@ public class Client {
     }
 
     /* ---------- send one packet ---------------------------------------- */
+    private synchronized void sendNew(int seq) throws IOException {
+        Packet p = buffer.add(seq);
+        int pos  = (seq - 1) * chunkSize;
+        p.len    = Math.min(chunkSize, fileBytes.length - pos);
+        System.arraycopy(fileBytes, pos, p.data, 0, p.len);
+        transmit(p, false);
+    }
+
     private synchronized void transmit(Packet p, boolean isRetrans) throws IOException {
         out.writeInt(p.seq);
-        out.writeInt(p.data.length);
-        out.write(p.data);
+        out.writeInt(p.len);
+        out.write(p.data, 0, p.len);
         out.flush();
 
         long now = System.currentTimeMillis();
@@ -153,7 +198,7 @@ public class Client {
 
         /* slide window, remove acked packets from buffer */
         base = ack + 1;
-        buffer.keySet().removeIf(seq -> seq <= ack);
+        buffer.release(ack);
 
         /* timer management */
         if (base == nextSeq) cancelTimer();         // window empty
@@ -197,24 +242,22 @@ public class Client {
     }
     private void sendFileName() throws IOException {
         out.writeUTF(file.getFileName().toString());
+        out.writeInt(chunkSize);                              // requested; the server may clamp it
         out.flush();
+        int agreed = in.readInt();
+        if (agreed != chunkSize)
+            System.out.printf("[Client] Server agreed to %d-byte chunks (asked for %d)%n", agreed, chunkSize);
+        chunkSize = agreed;
+        buffer    = new SendBuffer(WINDOW_SIZE, chunkSize);
     }
 
     /* ---------- file slicing ------------------------------------------- */
-    private List<Packet> sliceFile() throws IOException {
-        byte[] all = Files.readAllBytes(file);
-        int    seq = 1;
-        List<Packet> list = new ArrayList<>();
-        for (int pos = 0; pos < all.length; pos += CHUNK_SIZE, seq++) {
-            int len  = Math.min(CHUNK_SIZE, all.length - pos);
-            byte[] b = Arrays.copyOfRange(all, pos, pos + len);
-            Packet p = new Packet(seq, b);
-            buffer.put(seq, p);                      // pre-buffer for (re)send
-            list.add(p);
-        }
+    private int sliceFile() throws IOException {
+        fileBytes     = Files.readAllBytes(file);
+        int totalPkts = (fileBytes.length + chunkSize - 1) / chunkSize;
         System.out.printf("[Client] Prepared %d packets (%,d bytes)%n",
-                          list.size(), all.length);
-        return list;
+                          totalPkts, fileBytes.length);
+        return totalPkts;
     }
 
     /* ---------- clean-up ------------------------------------------------ */
@@ -228,12 +271,16 @@ public class Client {
     public static void main(String[] args) throws Exception {
         String host = "localhost";
         int port = 3923;
+        int chunkSize = CHUNK_SIZE;
+        for (String arg : args) {
+            if (arg.startsWith("--chunk=")) chunkSize = Integer.parseInt(arg.substring("--chunk=".length()));
+        }
 
         Scanner scanner = new Scanner(System.in);
         System.out.print("Enter the file path: ");
         String filePath = scanner.nextLine();
         Path file = Paths.get(filePath);
 
-        new Client(host, port, file).run();
+        new Client(host, port, file, chunkSize).run();
     }
 }
\ No newline at end of file
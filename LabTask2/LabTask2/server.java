@@ -6,7 +6,8 @@ public class server {
 
     private static final int  PORT          = 3923;
     private static final int  INITIAL_RWND  = 2000;   
-    private static final int  CHUNK_SIZE    = 1024;        // bytes per packet
+    private static final int  CHUNK_SIZE    = 1024;        // smallest chunk the handshake agrees to
+    private static final int  MAX_CHUNK_SIZE = 64 * 1024;  // largest chunk the handshake agrees to
     private static final double LOSS_PROB   = 0.10;        // 10 % simulated loss
 
     public static void main(String[] args) {
@@ -53,6 +54,12 @@ public class server {
                 String fileName = in.readUTF();
                 System.out.printf("[C%d] requested file \"%s\"%n", id, fileName);
 
+                /* 1a. Chunk size — the client asks, the server clamps and answers */
+                int chunkSize = Math.max(CHUNK_SIZE, Math.min(in.readInt(), MAX_CHUNK_SIZE));
+                out.writeInt(chunkSize);
+                out.flush();
+                System.out.printf("[C%d] agreed on %d-byte chunks%n", id, chunkSize);
+
                 /* 2. Prepare output file */
                 File clientDir = new File("uploads");
                 if (!clientDir.exists()) clientDir.mkdirs();
@@ -84,14 +91,14 @@ public class server {
                         /* 4b. Normal receive path */
                         if (seq == expectedSeq) {
                             // write this packet
-                            raf.seek((long) (seq - 1) * CHUNK_SIZE);
+                            raf.seek((long) (seq - 1) * chunkSize);
                             raf.write(data);
                             expectedSeq++;
 
                             // flush any buffered “next” packets
                             while (buffer.containsKey(expectedSeq)) {
                                 byte[] nxt = buffer.remove(expectedSeq);
-                                raf.seek((long) (expectedSeq - 1) * CHUNK_SIZE);
+                                raf.seek((long) (expectedSeq - 1) * chunkSize);
                                 raf.write(nxt);
                                 expectedSeq++;
                             }
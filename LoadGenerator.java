@@ -0,0 +1,203 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Headless load generator for the RDT server: starts simulated {@link Client}s with Poisson
+ * arrivals for a fixed duration, waits for them to finish and reports goodput, completion time
+ * percentiles and failures.
+ *
+ * Usage: java LoadGenerator [--rate=R] [--duration=S] [--size=N|MIN-MAX] [--modes=tahoe,reno,vegas]
+ *                           [--max-clients=N] [--host=H] [--port=P]
+ */
+public class LoadGenerator {
+
+    // --- Configuration (defaults, overridable from the command line) ---
+    private static final String HOST = "localhost";
+    private static final int PORT = 3923;
+    private static final double ARRIVAL_RATE = 50; // New clients per second
+    private static final int DURATION_S = 30; // How long new clients keep arriving
+    private static final int MIN_SIZE = 64 * 1024; // File size range per client, in bytes
+    private static final int MAX_SIZE = 64 * 1024;
+    private static final int MAX_CLIENTS = 5000; // Arrivals beyond this many in flight are dropped
+    private static final long DRAIN_TIMEOUT_S = 300; // Wait this long for stragglers after arrivals stop
+
+    // --- Per-client outcome ---
+    private static final class Result {
+        final Client.Mode mode;
+        final long bytes;
+        final long nanos;
+        final boolean verified;
+        final String error; // null unless the client threw
+
+        Result(Client.Mode mode, long bytes, long nanos, boolean verified, String error) {
+            this.mode = mode;
+            this.bytes = bytes;
+            this.nanos = nanos;
+            this.verified = verified;
+            this.error = error;
+        }
+    }
+
+    private final String host;
+    private final int port;
+    private final List<Client.Mode> modes;
+    private final int minSize, maxSize;
+    private final int maxClients;
+
+    private final Queue<Result> results = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger dropped = new AtomicInteger();
+    private final AtomicInteger nextId = new AtomicInteger();
+
+    public LoadGenerator(String host, int port, List<Client.Mode> modes, int minSize, int maxSize, int maxClients) {
+        this.host = host;
+        this.port = port;
+        this.modes = modes;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.maxClients = maxClients;
+    }
+
+    /** Open loop: arrivals do not wait for earlier clients, so a slow server builds up a backlog. */
+    public void run(double rate, int durationSeconds) throws InterruptedException {
+        ExecutorService clients = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "load-client");
+            t.setDaemon(true);
+            return t;
+        });
+        Random random = new Random();
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(durationSeconds);
+        long nextArrival = start;
+        long lastReport = start;
+        System.out.printf("[Load] %.1f clients/s for %d s, %s, sizes %,d-%,d bytes%n",
+                rate, durationSeconds, modes, minSize, maxSize);
+
+        while (nextArrival < end) {
+            long wait = nextArrival - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            if (inFlight.get() >= maxClients) {
+                dropped.incrementAndGet();
+            } else {
+                inFlight.incrementAndGet();
+                Client.Mode mode = modes.get(random.nextInt(modes.size()));
+                int size = minSize + (maxSize > minSize ? random.nextInt(maxSize - minSize + 1) : 0);
+                clients.execute(() -> runClient(mode, size));
+            }
+            nextArrival += (long) (-Math.log(1 - random.nextDouble()) / rate * 1e9); // Exponential gaps
+            if (System.nanoTime() - lastReport > TimeUnit.SECONDS.toNanos(5)) {
+                lastReport = System.nanoTime();
+                System.out.printf("[Load] t=%.0fs started=%d in flight=%d finished=%d%n",
+                        (lastReport - start) / 1e9, nextId.get(), inFlight.get(), results.size());
+            }
+        }
+
+        System.out.printf("[Load] Arrivals done, waiting for %d clients to finish...%n", inFlight.get());
+        clients.shutdown();
+        if (!clients.awaitTermination(DRAIN_TIMEOUT_S, TimeUnit.SECONDS)) {
+            System.out.printf("[Load] %d clients still running after %d s, reporting without them%n",
+                    inFlight.get(), DRAIN_TIMEOUT_S);
+        }
+        report((System.nanoTime() - start) / 1e9);
+    }
+
+    private void runClient(Client.Mode mode, int size) {
+        int id = nextId.incrementAndGet();
+        byte[] data = new byte[size];
+        ThreadLocalRandom.current().nextBytes(data); // Random content, so every transfer ID is distinct
+        Client client = new Client(host, port, "load_" + id + ".bin", data, mode);
+        client.setQuiet(true);
+        long t0 = System.nanoTime();
+        try {
+            client.run();
+            results.add(new Result(mode, size, System.nanoTime() - t0, client.isVerified(), null));
+        } catch (Exception e) {
+            String error = e.getClass().getSimpleName() + (e.getMessage() != null ? ": " + e.getMessage() : "");
+            results.add(new Result(mode, size, System.nanoTime() - t0, false, error));
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private void report(double elapsedSeconds) {
+        List<Result> all = new ArrayList<>(results);
+        long[] completion = all.stream().filter(r -> r.verified).mapToLong(r -> r.nanos).sorted().toArray();
+        long verifiedBytes = all.stream().filter(r -> r.verified).mapToLong(r -> r.bytes).sum();
+        long incomplete = all.stream().filter(r -> !r.verified && r.error == null).count();
+        Map<String, Integer> errors = new TreeMap<>();
+        for (Result r : all) {
+            if (r.error != null) errors.merge(r.error, 1, Integer::sum);
+        }
+
+        System.out.println("\n===== Load Test Summary =====");
+        System.out.printf("Clients: %d finished (%d verified, %d incomplete, %d errors), %d dropped at the in-flight cap%n",
+                all.size(), completion.length, incomplete, all.size() - completion.length - incomplete, dropped.get());
+        System.out.printf("Goodput: %.1f KB/s aggregate (%,d verified bytes in %.1f s)%n",
+                verifiedBytes / 1024.0 / elapsedSeconds, verifiedBytes, elapsedSeconds);
+        if (completion.length > 0) {
+            System.out.printf("Completion time: p50=%.1fms p99=%.1fms p999=%.1fms max=%.1fms%n",
+                    percentile(completion, 0.50) / 1e6, percentile(completion, 0.99) / 1e6,
+                    percentile(completion, 0.999) / 1e6, completion[completion.length - 1] / 1e6);
+        }
+        for (Client.Mode mode : modes) {
+            long[] perMode = all.stream().filter(r -> r.verified && r.mode == mode).mapToLong(r -> r.nanos).sorted().toArray();
+            if (perMode.length > 0) {
+                System.out.printf("  %-5s %5d verified, p50=%.1fms p99=%.1fms%n", mode, perMode.length,
+                        percentile(perMode, 0.50) / 1e6, percentile(perMode, 0.99) / 1e6);
+            }
+        }
+        errors.forEach((error, count) -> System.out.printf("  error x%d: %s%n", count, error));
+    }
+
+    /** Nearest-rank percentile of an ascending array. */
+    private static long percentile(long[] sorted, double q) {
+        int rank = (int) Math.ceil(q * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+
+    public static void main(String[] args) throws Exception {
+        String host = HOST;
+        int port = PORT;
+        double rate = ARRIVAL_RATE;
+        int duration = DURATION_S;
+        int minSize = MIN_SIZE, maxSize = MAX_SIZE;
+        int maxClients = MAX_CLIENTS;
+        List<Client.Mode> modes = new ArrayList<>(Arrays.asList(Client.Mode.TAHOE, Client.Mode.RENO));
+
+        for (String arg : args) {
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith("--rate=")) {
+                rate = Double.parseDouble(value);
+            } else if (arg.startsWith("--duration=")) {
+                duration = Integer.parseInt(value);
+            } else if (arg.startsWith("--size=")) { // --size=N or --size=MIN-MAX
+                String[] range = value.split("-");
+                minSize = Integer.parseInt(range[0]);
+                maxSize = range.length > 1 ? Integer.parseInt(range[1]) : minSize;
+            } else if (arg.startsWith("--modes=")) {
+                modes.clear();
+                for (String mode : value.split(",")) {
+                    modes.add(Client.Mode.valueOf(mode.trim().toUpperCase()));
+                }
+            } else if (arg.startsWith("--max-clients=")) {
+                maxClients = Integer.parseInt(value);
+            } else if (arg.startsWith("--host=")) {
+                host = value;
+            } else if (arg.startsWith("--port=")) {
+                port = Integer.parseInt(value);
+            } else {
+                System.err.println("Unknown option: " + arg);
+                System.exit(1);
+            }
+        }
+        if (minSize < 1 || maxSize < minSize || rate <= 0 || modes.isEmpty()) {
+            System.err.println("Invalid load parameters");
+            System.exit(1);
+        }
+
+        new LoadGenerator(host, port, modes, minSize, maxSize, maxClients).run(rate, duration);
+    }
+}
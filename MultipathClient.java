@@ -0,0 +1,533 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+/**
+ * Multipath variant of {@link Client}: one upload is striped over several subflows, each its own
+ * connection to one of the server's path ports (server --paths=N). The first subflow claims the
+ * transfer as usual and the others join it; the server stores what arrives on any of them by
+ * sequence number, and every subflow gets the ACKs for its own packets.
+ *
+ * Each new or lost packet goes to the subflow with the lowest smoothed RTT that has room in its
+ * window. Every subflow has its own sender thread, which picks its packets under the client's
+ * lock but writes them outside it, so a path whose socket stops draining holds up only itself:
+ * the others keep sending, ACKs keep being processed, and its packets time out and move over.
+ * A subflow is one in-order connection, so an ACK echoing a packet's timestamp proves
+ * that every earlier unACKed packet on that subflow was dropped; those are resent on whichever
+ * subflow is free first. Congestion avoidance is coupled across subflows (LIA, RFC 6356), so the
+ * upload takes no more from a shared bottleneck than one flow on its best path would.
+ *
+ * Usage: java MultipathClient [--paths=N | --ports=P1,P2,...] [--host=H] [--tenant=NAME] [--uncoupled] [FILE]
+ */
+public class MultipathClient {
+
+    // --- Configuration ---
+    private static final String HOST = "localhost";
+    private static final int PORT = 3923; // Path 0; path i is PORT + i
+    private static final int PATHS = 2;
+    private static final String FILE_TO_SEND = "Board.jpeg";
+    private static final int CHUNK_SIZE = 1024; // bytes / packet
+    private static final int INITIAL_SSTHRESH = 64; // Per subflow, in packets
+    private static final long INITIAL_RTO_MS = 200;
+    private static final long MIN_RTO_MS = 100; // ACKs held back by the server's scheduler must not look lost
+    private static final long MAX_TIMEOUT_MS = 5000;
+    private static final long TICK_MS = 5; // How often an idle sender rechecks its retransmission timers
+    private static final int HANDSHAKE_TIMEOUT_MS = 15000;
+    private static final double ALPHA = 0.125;
+    private static final double BETA = 0.25;
+
+    // --- Packets in flight on a subflow, oldest first ---
+    private static final class Sent {
+        final int seq;
+        final long ts; // Unique per subflow, so the echo names exactly this transmission
+
+        Sent(int seq, long ts) {
+            this.seq = seq;
+            this.ts = ts;
+        }
+    }
+
+    // --- Subflow ---
+    private static final class Subflow {
+        final int index;
+        final int port;
+        Socket sock;
+        DataInputStream in;
+        DataOutputStream out; // Written only by the subflow's sender thread, and by run() once it has stopped
+        boolean alive = true;
+        boolean writing = false; // A frame is on its way into the socket, outside the client's lock
+        boolean suspect = false; // Timed out with no ACK since; only used when no other subflow has room
+
+        final ArrayDeque<Sent> inFlight = new ArrayDeque<>();
+        double cwnd = 1; // Packets; fractional so coupled increases can be smaller than one
+        double ssthresh = INITIAL_SSTHRESH;
+        int rwnd = Integer.MAX_VALUE;
+        double srtt = 0; // Nanoseconds, 0 until the first sample
+        double rttvar = 0;
+        long rto = TimeUnit.MILLISECONDS.toNanos(INITIAL_RTO_MS);
+        long lastTs = 0;
+        long recoveryUntil = 0; // Losses of packets sent before this ts belong to the last reduction
+
+        int packetsSent = 0, retransmissions = 0, losses = 0, timeouts = 0, delivered = 0;
+
+        final CRC32C crc = new CRC32C();
+        final ByteBuffer frameHeader = ByteBuffer.allocate(17);
+
+        Subflow(int index, int port) {
+            this.index = index;
+            this.port = port;
+        }
+
+        boolean hasRoom() {
+            return alive && !writing && inFlight.size() < Math.min((int) cwnd, rwnd);
+        }
+    }
+
+    private final String host;
+    private final Path file;
+    private final List<Subflow> subflows = new ArrayList<>();
+    private String tenant = "default";
+    private boolean coupled = true;
+
+    // Transfer state, guarded by this
+    private byte[] fileBytes;
+    private byte[] fileDigest;
+    private String transferId; // Client.transferId(tenant, name, digest), so both clients resume each other's uploads
+    private int totalPkts;
+    private int startSeq;
+    private int nextSeq; // Next never-sent packet
+    private int dataAck; // Server's cumulative ACK over all subflows
+    private final BitSet delivered = new BitSet(); // Individually ACKed packets
+    private final ArrayDeque<Integer> lost = new ArrayDeque<>(); // To be resent on any subflow
+    private Boolean digestVerified;
+    private boolean finished = false;
+
+    public MultipathClient(String host, int[] ports, Path file) {
+        this.host = host;
+        this.file = file;
+        for (int i = 0; i < ports.length; i++) {
+            subflows.add(new Subflow(i, ports[i]));
+        }
+    }
+
+    /** Tenant the server's fair scheduler weights every subflow by. */
+    public void setTenant(String tenant) {
+        this.tenant = tenant;
+    }
+
+    /** Runs plain Reno on every subflow instead of LIA, to compare how much each grabs. */
+    public void setCoupled(boolean coupled) {
+        this.coupled = coupled;
+    }
+
+    public void run() throws IOException, InterruptedException {
+        fileBytes = Files.readAllBytes(file);
+        try {
+            fileDigest = MessageDigest.getInstance("SHA-256").digest(fileBytes);
+            transferId = Client.transferId(tenant, file.getFileName().toString(), fileDigest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 unavailable", e);
+        }
+        totalPkts = (fileBytes.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        System.out.printf("[MP] Prepared %d packets for file '%s' (%,d bytes) over %d paths, %s congestion control%n",
+                totalPkts, file.getFileName(), fileBytes.length, subflows.size(), coupled ? "coupled (LIA)" : "uncoupled Reno");
+
+        // The first subflow claims the transfer; the rest join it or are left out
+        Subflow primary = subflows.get(0);
+        startSeq = open(primary, false);
+        nextSeq = startSeq;
+        dataAck = startSeq - 1;
+        if (startSeq > 1) {
+            System.out.printf("[MP] Server already has packets 1..%d, resuming from pkt%d%n", startSeq - 1, startSeq);
+        }
+        for (Subflow s : subflows.subList(1, subflows.size())) {
+            try {
+                open(s, true);
+            } catch (IOException e) {
+                s.alive = false;
+                System.out.printf("[MP] Path %d (port %d) unavailable: %s%n", s.index, s.port, e.getMessage());
+            }
+        }
+        long startTime = System.nanoTime();
+        Thread[] senders = new Thread[subflows.size()];
+        for (Subflow s : subflows) {
+            if (!s.alive) continue;
+            Thread reader = new Thread(() -> readAcks(s), "acks-path-" + s.index);
+            reader.setDaemon(true);
+            reader.start();
+            senders[s.index] = new Thread(() -> sendLoop(s), "send-path-" + s.index);
+            senders[s.index].setDaemon(true);
+            senders[s.index].start();
+        }
+
+        try {
+            awaitAcked();
+            // The owning connection's sender has seen the last ACK and stops; then its stream is ours
+            senders[0].join(MAX_TIMEOUT_MS);
+            if (senders[0].isAlive()) {
+                throw new IOException("path 0 is stuck writing; cannot send the file digest");
+            }
+            primary.out.writeInt(-1); // EOF sentinel on the owning connection, then the file digest
+            primary.out.write(fileDigest);
+            primary.out.flush();
+            synchronized (this) {
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_TIMEOUT_MS);
+                while (digestVerified == null && primary.alive && System.nanoTime() < deadline) {
+                    wait(TICK_MS);
+                }
+            }
+        } finally {
+            synchronized (this) {
+                finished = true;
+                notifyAll();
+            }
+            for (Subflow s : subflows) {
+                if (s.sock != null) s.sock.close();
+            }
+        }
+        printStats(startTime);
+    }
+
+    /** Connects and handshakes one subflow; returns the first seq the server still needs. */
+    private int open(Subflow s, boolean join) throws IOException {
+        s.sock = new Socket();
+        s.sock.connect(new InetSocketAddress(host, s.port), HANDSHAKE_TIMEOUT_MS);
+        s.sock.setSoTimeout(HANDSHAKE_TIMEOUT_MS);
+        s.sock.setTcpNoDelay(true);
+        s.in = new DataInputStream(new BufferedInputStream(s.sock.getInputStream()));
+        s.out = new DataOutputStream(new BufferedOutputStream(s.sock.getOutputStream()));
+        String greeting = s.in.readUTF();
+        if (greeting.startsWith("BUSY")) {
+            s.sock.close();
+            throw new IOException("server busy");
+        }
+        s.out.writeUTF(file.getFileName().toString());
+        s.out.writeUTF(transferId());
+        s.out.writeLong(fileBytes.length);
+        s.out.writeUTF(tenant);
+        s.out.writeInt(CHUNK_SIZE);
+        s.out.writeBoolean(join);
+        s.out.writeInt(0); // No FEC on subflows
+        s.out.flush();
+        int resumeFrom = s.in.readInt();
+        if (resumeFrom < 1) {
+            s.sock.close();
+            throw new IOException("Server refused " + (join ? "subflow for " : "") + "transfer " + transferId());
+        }
+        int chunkSize = s.in.readInt();
+        s.in.readInt(); // Largest chunk size allowed; this client stays at CHUNK_SIZE
+        if (chunkSize != CHUNK_SIZE) {
+            s.sock.close();
+            throw new IOException("Server chose " + chunkSize + "-byte chunks, expected " + CHUNK_SIZE);
+        }
+        s.sock.setSoTimeout(0);
+        System.out.printf("[MP] Path %d: %s port %d%n", s.index, join ? "joined on" : "transfer claimed on", s.port);
+        return resumeFrom;
+    }
+
+    /** Runs the retransmission timers until the server has ACKed the whole file; the senders do the rest. */
+    private synchronized void awaitAcked() throws IOException, InterruptedException {
+        Subflow primary = subflows.get(0);
+        while (dataAck < totalPkts) {
+            if (!primary.alive) {
+                throw new IOException("lost the path that owns the transfer; run again to resume");
+            }
+            checkTimeouts(System.nanoTime());
+            wait(TICK_MS);
+        }
+        notifyAll(); // Senders waiting for work see that there is none left
+    }
+
+    /**
+     * Sender thread of one subflow. Whenever it is the subflow {@link #pick()} would choose and
+     * there is a packet to send, it claims one and records it in flight under the lock, then
+     * writes the frame without it. Until the write returns the subflow has no room, so a path
+     * stuck in a full socket buffer is skipped and its packets are left to its timer.
+     */
+    private void sendLoop(Subflow s) {
+        try {
+            while (true) {
+                int seq;
+                boolean retransmission;
+                long ts;
+                synchronized (this) {
+                    while (true) {
+                        if (finished || !s.alive || dataAck >= totalPkts) return;
+                        if (pick() == s) {
+                            seq = nextLost();
+                            retransmission = seq > 0;
+                            if (!retransmission && nextSeq <= totalPkts) {
+                                seq = nextSeq++;
+                            }
+                            if (seq > 0) break;
+                        }
+                        wait(); // No room, a faster subflow has it, or nothing to send until ACKs or a timeout
+                    }
+                    ts = Math.max(System.nanoTime(), s.lastTs + 1);
+                    s.lastTs = ts;
+                    s.inFlight.addLast(new Sent(seq, ts)); // In send order, which the FIFO loss inference relies on
+                    s.packetsSent++;
+                    if (retransmission) s.retransmissions++;
+                    s.writing = true;
+                    notifyAll(); // With this subflow busy, another one may now be the pick
+                }
+                try {
+                    writeFrame(s, seq, ts);
+                } finally {
+                    synchronized (this) {
+                        s.writing = false;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                if (!finished) fail(s, e);
+                notifyAll();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Lowest smoothed RTT among the subflows with room; an unmeasured subflow counts as fastest.
+     * A subflow that has timed out comes last whatever its RTT, since that RTT was measured
+     * before the path went quiet; otherwise the packets it lost would be resent on it again.
+     */
+    private Subflow pick() {
+        Subflow best = null;
+        for (Subflow s : subflows) {
+            if (s.hasRoom() && (best == null || (s.suspect != best.suspect ? !s.suspect : s.srtt < best.srtt))) {
+                best = s;
+            }
+        }
+        return best;
+    }
+
+    /** Oldest lost packet the server still lacks, or -1 if there is none. */
+    private int nextLost() {
+        Integer seq;
+        while ((seq = lost.poll()) != null) {
+            if (seq > dataAck && !delivered.get(seq)) return seq;
+        }
+        return -1;
+    }
+
+    /** Called by the subflow's sender thread without the client's lock. */
+    private void writeFrame(Subflow s, int seq, long ts) throws IOException {
+        int pos = (seq - 1) * CHUNK_SIZE;
+        int len = Math.min(CHUNK_SIZE, fileBytes.length - pos);
+
+        s.frameHeader.clear();
+        s.frameHeader.putInt(seq).putLong(ts).put((byte) 0).putInt(len).flip();
+        s.crc.reset();
+        s.crc.update(s.frameHeader);
+        s.crc.update(fileBytes, pos, len);
+        s.out.write(s.frameHeader.array(), 0, s.frameHeader.limit());
+        s.out.writeInt((int) s.crc.getValue());
+        s.out.write(fileBytes, pos, len);
+        s.out.flush();
+    }
+
+    private void readAcks(Subflow s) {
+        try {
+            while (true) {
+                int ack = s.in.readInt();
+                if (ack == -1) { // Session closed, with the server's digest check
+                    boolean ok = s.in.readBoolean();
+                    synchronized (this) {
+                        digestVerified = ok;
+                        notifyAll();
+                    }
+                    return;
+                }
+                long tsEcho = s.in.readLong();
+                s.in.readByte(); // Flags: nothing this client asked for (no FEC, ECN or probes)
+                int rwnd = s.in.readInt();
+                onAck(s, ack, tsEcho, Math.max(rwnd, 1));
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                if (!finished) fail(s, e);
+                notifyAll();
+            }
+        }
+    }
+
+    private synchronized void onAck(Subflow s, int ack, long tsEcho, int rwnd) {
+        s.rwnd = rwnd;
+        dataAck = Math.max(dataAck, ack);
+
+        // The connection is FIFO: whatever went out on it before the echoed packet and is still
+        // unACKed was dropped on the way
+        Sent hit = null;
+        while (!s.inFlight.isEmpty() && s.inFlight.peekFirst().ts <= tsEcho) {
+            Sent p = s.inFlight.pollFirst();
+            if (p.ts == tsEcho) {
+                hit = p;
+                break;
+            }
+            onLoss(s, p);
+        }
+        if (hit != null) {
+            s.suspect = false;
+            delivered.set(hit.seq);
+            s.delivered++;
+            updateRtt(s, System.nanoTime() - tsEcho); // The echo names one transmission, so Karn's rule is moot
+            grow(s);
+        }
+        notifyAll();
+    }
+
+    /** Slow start per subflow; in congestion avoidance LIA caps the increase by the coupled alpha. */
+    private void grow(Subflow s) {
+        if (s.cwnd > s.rwnd) return; // The receiver is the limit; a bigger cwnd would only burst later
+        if (s.cwnd < s.ssthresh) {
+            s.cwnd += 1;
+        } else if (coupled) {
+            double total = 0;
+            for (Subflow f : subflows) {
+                if (f.alive) total += f.cwnd;
+            }
+            s.cwnd += Math.min(liaAlpha() / total, 1 / s.cwnd);
+        } else {
+            s.cwnd += 1 / s.cwnd;
+        }
+    }
+
+    /** alpha = total * max(cwnd_i / rtt_i^2) / (sum(cwnd_i / rtt_i))^2, over subflows with an RTT sample. */
+    private double liaAlpha() {
+        double total = 0, best = 0, sum = 0;
+        for (Subflow f : subflows) {
+            if (!f.alive || f.srtt == 0) continue;
+            double rtt = f.srtt / 1e9;
+            total += f.cwnd;
+            best = Math.max(best, f.cwnd / (rtt * rtt));
+            sum += f.cwnd / rtt;
+        }
+        return sum == 0 ? 1 : total * best / (sum * sum);
+    }
+
+    /** Queues {@code p} for another try and halves cwnd, once per window of losses. */
+    private void onLoss(Subflow s, Sent p) {
+        s.losses++;
+        if (p.seq > dataAck && !delivered.get(p.seq)) {
+            lost.add(p.seq);
+        }
+        if (p.ts >= s.recoveryUntil) {
+            s.recoveryUntil = s.lastTs + 1;
+            s.ssthresh = Math.max(s.cwnd / 2, 2);
+            s.cwnd = s.ssthresh;
+        }
+    }
+
+    private void checkTimeouts(long now) {
+        boolean requeued = false;
+        for (Subflow s : subflows) {
+            Sent oldest = s.inFlight.peekFirst();
+            if (!s.alive || oldest == null || now - oldest.ts < s.rto) continue;
+            System.out.printf("[MP] Path %d: timeout, resending %d packets elsewhere%n", s.index, s.inFlight.size());
+            s.timeouts++;
+            s.suspect = true;
+            for (Sent p : s.inFlight) {
+                if (p.seq > dataAck && !delivered.get(p.seq)) lost.add(p.seq);
+            }
+            s.inFlight.clear();
+            s.recoveryUntil = s.lastTs + 1;
+            s.ssthresh = Math.max(s.cwnd / 2, 2);
+            s.cwnd = 1;
+            s.rto = Math.min(s.rto * 2, TimeUnit.MILLISECONDS.toNanos(MAX_TIMEOUT_MS));
+            requeued = true;
+        }
+        if (requeued) notifyAll();
+    }
+
+    /** Takes a broken subflow out of service; its unACKed packets move to the others. */
+    private void fail(Subflow s, IOException e) {
+        if (!s.alive) return;
+        s.alive = false;
+        System.out.printf("[MP] Path %d (port %d) failed: %s; %d packets moved to the other paths%n",
+                s.index, s.port, e.getMessage(), s.inFlight.size());
+        for (Sent p : s.inFlight) {
+            if (p.seq > dataAck && !delivered.get(p.seq)) lost.add(p.seq);
+        }
+        s.inFlight.clear();
+    }
+
+    private static void updateRtt(Subflow s, long sample) {
+        if (s.srtt == 0) {
+            s.srtt = sample;
+            s.rttvar = sample / 2.0;
+        } else {
+            s.srtt = (1 - ALPHA) * s.srtt + ALPHA * sample;
+            s.rttvar = (1 - BETA) * s.rttvar + BETA * Math.abs(sample - s.srtt);
+        }
+        long minRto = TimeUnit.MILLISECONDS.toNanos(MIN_RTO_MS);
+        long maxRto = TimeUnit.MILLISECONDS.toNanos(MAX_TIMEOUT_MS);
+        s.rto = Math.min(Math.max((long) (s.srtt + 4 * s.rttvar), minRto), maxRto);
+    }
+
+    private String transferId() {
+        return transferId;
+    }
+
+    private synchronized void printStats(long startTime) {
+        double elapsedSec = (System.nanoTime() - startTime) / 1e9;
+        long bytes = Math.min((long) dataAck * CHUNK_SIZE, fileBytes.length) - Math.min((long) (startSeq - 1) * CHUNK_SIZE, fileBytes.length);
+        System.out.printf("%n[MP] %,d bytes in %.2fs: %.1f KB/s aggregate goodput%n", bytes, elapsedSec, bytes / 1024.0 / elapsedSec);
+        for (Subflow s : subflows) {
+            System.out.printf("[MP]   path %d port %d%s: sent=%d retransmitted=%d delivered=%d (%.1f%%) lost=%d timeouts=%d cwnd=%.1f srtt=%.3fms%n",
+                    s.index, s.port, s.alive ? "" : " (down)", s.packetsSent, s.retransmissions, s.delivered,
+                    totalPkts - startSeq + 1 == 0 ? 0.0 : 100.0 * s.delivered / (totalPkts - startSeq + 1),
+                    s.losses, s.timeouts, s.cwnd, s.srtt / 1e6);
+        }
+        System.out.println("[MP] Server " + (digestVerified == null ? "gave no verdict on"
+                : digestVerified ? "verified" : "REJECTED") + " the file digest.");
+    }
+
+    public static void main(String[] args) throws Exception {
+        String host = HOST;
+        int[] ports = null;
+        int paths = PATHS;
+        String tenant = "default";
+        boolean coupled = true;
+        String fileName = FILE_TO_SEND;
+        for (String arg : args) {
+            if (arg.startsWith("--paths=")) {
+                paths = Integer.parseInt(arg.substring("--paths=".length()));
+            } else if (arg.startsWith("--ports=")) {
+                ports = Arrays.stream(arg.substring("--ports=".length()).split(",")).mapToInt(Integer::parseInt).toArray();
+            } else if (arg.startsWith("--host=")) {
+                host = arg.substring("--host=".length());
+            } else if (arg.startsWith("--tenant=")) {
+                tenant = arg.substring("--tenant=".length());
+            } else if (arg.equals("--uncoupled")) {
+                coupled = false;
+            } else if (!arg.startsWith("--")) {
+                fileName = arg;
+            } else {
+                System.err.println("Unknown option: " + arg);
+                System.exit(1);
+            }
+        }
+        if (ports == null) {
+            ports = new int[Math.max(paths, 1)];
+            for (int i = 0; i < ports.length; i++) ports[i] = PORT + i;
+        }
+
+        Path file = Paths.get(fileName);
+        if (!Files.exists(file)) {
+            System.err.println("Error: File '" + fileName + "' not found in the current directory.");
+            System.exit(1);
+        }
+        MultipathClient client = new MultipathClient(host, ports, file);
+        client.setTenant(tenant);
+        client.setCoupled(coupled);
+        client.run();
+    }
+}
@@ -0,0 +1,343 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Offline analysis of {@link TraceWriter} files. Records are streamed through a fixed buffer and
+ * folded into per-connection counters and goodput buckets, so memory depends on the number of
+ * connections and the trace duration, not on the number of events.
+ *
+ * Usage: java TraceAnalyzer trace.bin [server.bin ...] [--bucket=MS] [--tsg=FILE] [--goodput=FILE] [--top=N]
+ *
+ * Traces from the client and the server can be given together: both ends key connections by
+ * the client's port, so drops seen by the server line up with the client's retransmissions.
+ * Ports are reused, so a connection is a port plus the time of its OPEN record; an event belongs
+ * to the latest connection opened on its port before it. The two ends' OPENs of one connection
+ * are a moment apart and fold into one. Older traces without OPEN get one connection per port.
+ */
+public class TraceAnalyzer {
+
+    private static final int READ_BUFFER = 4 << 20;
+    private static final long DEFAULT_BUCKET_MS = 100;
+    private static final int DEFAULT_TOP = 20; // Connections listed individually, by bytes acknowledged
+    private static final int MAX_PRINTED_BUCKETS = 60; // Longer series only go to --goodput
+    private static final long OPEN_MATCH_NS = 500_000_000L; // Client connect to server accept, plus clock skew
+
+    private static final String[] EVENT_NAMES = {
+            "?", "SEND", "RETRANSMIT", "ACK", "DROP", "CORRUPT", "TIMEOUT", "FAST_RETRANSMIT", "CWND", "RECEIVE", "MARK", "OPEN"
+    };
+
+    // --- Per-connection accumulators ---
+    private static final class Conn {
+        final int id; // In order of first appearance
+        final int port;
+        long firstNs = Long.MAX_VALUE, lastNs = Long.MIN_VALUE;
+        long sends, sendBytes, retransmits, retransmitBytes;
+        long acks, dupAcks, ackedBytes;
+        long drops, corrupts, receives, marks;
+        long timeouts, fastRetransmits;
+        int maxCwnd;
+        long[] goodput = new long[16]; // Acknowledged bytes per bucket
+
+        Conn(int id, int port) {
+            this.id = id;
+            this.port = port;
+        }
+
+        void addGoodput(int bucket, long bytes) {
+            if (bucket >= goodput.length) {
+                goodput = Arrays.copyOf(goodput, Math.max(goodput.length * 2, bucket + 1));
+            }
+            goodput[bucket] += bytes;
+        }
+    }
+
+    private final long bucketNs;
+    private final List<Conn> conns = new ArrayList<>();
+    private final Map<Integer, TreeMap<Long, Conn>> byPort = new HashMap<>(); // Keyed by open time
+    private long events = 0;
+    private long originNs = Long.MAX_VALUE;
+    private long endNs = Long.MIN_VALUE;
+    private Writer tsg;
+
+    public TraceAnalyzer(long bucketMs) {
+        this.bucketNs = bucketMs * 1_000_000L;
+    }
+
+    /** Reads only the headers, to put every trace on the earliest trace's time axis. */
+    public void scanHeaders(List<Path> traces) throws IOException {
+        for (Path path : traces) {
+            try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+                originNs = Math.min(originNs, readHeader(ch, path)[0]);
+            }
+        }
+    }
+
+    /** Returns {epochNanos, nanoOrigin} after checking magic and version. */
+    private static long[] readHeader(FileChannel ch, Path path) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(TraceWriter.HEADER_SIZE);
+        while (header.hasRemaining() && ch.read(header) != -1) {
+        }
+        header.flip();
+        if (header.remaining() < TraceWriter.HEADER_SIZE || header.getInt() != TraceWriter.MAGIC) {
+            throw new IOException(path + " is not an RDT trace");
+        }
+        int version = header.getInt();
+        if (version != TraceWriter.VERSION) {
+            throw new IOException(path + " has trace version " + version + ", expected " + TraceWriter.VERSION);
+        }
+        return new long[]{header.getLong(), header.getLong()};
+    }
+
+    public void process(Path path) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            long[] header = readHeader(ch, path);
+            long toEpoch = header[0] - header[1]; // nanoTime + toEpoch = wall-clock nanos
+            ByteBuffer buf = ByteBuffer.allocateDirect(READ_BUFFER);
+            while (ch.read(buf) != -1 || buf.position() > 0) {
+                buf.flip();
+                if (buf.remaining() < TraceWriter.RECORD_SIZE) {
+                    break; // Torn final record of a trace whose writer was killed
+                }
+                while (buf.remaining() >= TraceWriter.RECORD_SIZE) {
+                    long t = buf.getLong() + toEpoch;
+                    int connId = buf.getInt();
+                    byte type = buf.get();
+                    int seq = buf.getInt();
+                    int a = buf.getInt();
+                    int b = buf.getInt();
+                    onEvent(t, connId, type, seq, a, b);
+                }
+                buf.compact();
+            }
+        }
+    }
+
+    private void onEvent(long t, int connId, byte type, int seq, int a, int b) throws IOException {
+        events++;
+        endNs = Math.max(endNs, t);
+        Conn c = type == TraceWriter.OPEN ? open(connId, t) : lookup(connId, t);
+        c.firstNs = Math.min(c.firstNs, t);
+        c.lastNs = Math.max(c.lastNs, t);
+        switch (type) {
+            case TraceWriter.SEND:
+                c.sends++;
+                c.sendBytes += a;
+                break;
+            case TraceWriter.RETRANSMIT:
+                c.retransmits++;
+                c.retransmitBytes += a;
+                break;
+            case TraceWriter.ACK:
+                c.acks++;
+                if (a == 0) {
+                    c.dupAcks++;
+                } else {
+                    c.ackedBytes += a;
+                    c.addGoodput((int) ((t - originNs) / bucketNs), a);
+                }
+                break;
+            case TraceWriter.DROP:
+                c.drops++;
+                break;
+            case TraceWriter.CORRUPT:
+                c.corrupts++;
+                break;
+            case TraceWriter.RECEIVE:
+                c.receives++;
+                break;
+            case TraceWriter.MARK:
+                c.marks++;
+                break;
+            case TraceWriter.TIMEOUT:
+                c.timeouts++;
+                break;
+            case TraceWriter.FAST_RETRANSMIT:
+                c.fastRetransmits++;
+                break;
+            case TraceWriter.CWND:
+                c.maxCwnd = Math.max(c.maxCwnd, a);
+                break;
+            default:
+                break;
+        }
+        if (tsg != null && type != TraceWriter.CWND && type != TraceWriter.RECEIVE && type != TraceWriter.OPEN) {
+            tsg.write(String.format("%.6f,%d,%d,%s,%d%n", (t - originNs) / 1e6, c.id, c.port, eventName(type), seq));
+        }
+    }
+
+    /** The connection this end opened at t: the other end's if it opened the port a moment apart, else a new one. */
+    private Conn open(int port, long t) {
+        TreeMap<Long, Conn> opened = byPort.computeIfAbsent(port, p -> new TreeMap<>());
+        Map.Entry<Long, Conn> match = null;
+        for (Map.Entry<Long, Conn> e : opened.subMap(t - OPEN_MATCH_NS, true, t + OPEN_MATCH_NS, true).entrySet()) {
+            if (match == null || Math.abs(e.getKey() - t) < Math.abs(match.getKey() - t)) {
+                match = e;
+            }
+        }
+        if (match == null) {
+            Conn c = new Conn(conns.size() + 1, port);
+            conns.add(c);
+            opened.put(t, c);
+            return c;
+        }
+        if (t < match.getKey()) {
+            // Key the connection by the earlier end, so neither end's records fall before it
+            opened.remove(match.getKey());
+            opened.put(t, match.getValue());
+        }
+        return match.getValue();
+    }
+
+    private Conn lookup(int port, long t) {
+        TreeMap<Long, Conn> opened = byPort.computeIfAbsent(port, p -> new TreeMap<>());
+        Map.Entry<Long, Conn> e = opened.floorEntry(t);
+        if (e != null) return e.getValue();
+        // No OPEN before it: a trace from before OPEN existed, or one started mid-connection
+        Conn c = new Conn(conns.size() + 1, port);
+        conns.add(c);
+        opened.put(Long.MIN_VALUE, c);
+        return c;
+    }
+
+    private static String eventName(byte type) {
+        return type > 0 && type < EVENT_NAMES.length ? EVENT_NAMES[type] : "?";
+    }
+
+    public void report(int top) {
+        long sends = 0, retransmits = 0, sendBytes = 0, retransmitBytes = 0, acked = 0;
+        long drops = 0, corrupts = 0, marks = 0, timeouts = 0, fastRetransmits = 0;
+        for (Conn c : conns) {
+            sends += c.sends;
+            retransmits += c.retransmits;
+            sendBytes += c.sendBytes;
+            retransmitBytes += c.retransmitBytes;
+            acked += c.ackedBytes;
+            drops += c.drops;
+            corrupts += c.corrupts;
+            marks += c.marks;
+            timeouts += c.timeouts;
+            fastRetransmits += c.fastRetransmits;
+        }
+        double seconds = Math.max(endNs - originNs, 1) / 1e9;
+
+        System.out.println("===== Trace Summary =====");
+        System.out.printf("Events: %,d over %.3f s, %d connections%n", events, seconds, conns.size());
+        System.out.printf("Packets: %,d sent, %,d retransmitted (%d by timeout, %d fast)%n",
+                sends, retransmits, timeouts, fastRetransmits);
+        System.out.printf("Goodput: %,d bytes acknowledged, %.1f KB/s aggregate%n", acked, acked / 1024.0 / seconds);
+        System.out.printf("Retransmission efficiency: %.1f%% of bytes sent were acknowledged, %.1f%% were retransmissions%n",
+                percent(acked, sendBytes + retransmitBytes), percent(retransmitBytes, sendBytes + retransmitBytes));
+        if (drops + corrupts > 0) {
+            // Each loss needs one repair; retransmissions beyond that resent data the server already had
+            System.out.printf("Server saw %,d drops and %,d corrupt packets; at least %,d retransmissions were spurious%n",
+                    drops, corrupts, Math.max(0, retransmits - drops - corrupts));
+        }
+        if (marks > 0) {
+            System.out.printf("Server ECN-marked %,d packets; as drops each would have cost a retransmission%n", marks);
+        }
+
+        List<Conn> ranked = new ArrayList<>(conns);
+        ranked.sort((x, y) -> Long.compare(y.ackedBytes, x.ackedBytes));
+        System.out.printf("%nTop %d connections by bytes acknowledged:%n", Math.min(top, ranked.size()));
+        System.out.println("  conn   port      start   duration   sent  retx  tmo  fast  drops  maxcwnd  acked bytes  goodput");
+        for (Conn c : ranked.subList(0, Math.min(top, ranked.size()))) {
+            double s = Math.max(c.lastNs - c.firstNs, 1) / 1e9;
+            System.out.printf("  %4d %6d %9.3fs %8.3fs %6d %5d %4d %5d %6d %8d %12d %7.1f KB/s%n", c.id, c.port,
+                    (c.firstNs - originNs) / 1e9, s, c.sends, c.retransmits,
+                    c.timeouts, c.fastRetransmits, c.drops + c.corrupts, c.maxCwnd, c.ackedBytes, c.ackedBytes / 1024.0 / s);
+        }
+
+        long[] total = aggregateGoodput();
+        if (total.length <= MAX_PRINTED_BUCKETS) {
+            System.out.printf("%nGoodput over time (%d ms buckets):%n", bucketNs / 1_000_000);
+            for (int i = 0; i < total.length; i++) {
+                System.out.printf("  %8.1f ms  %9.1f KB/s%n", i * bucketNs / 1e6, total[i] / 1024.0 / (bucketNs / 1e9));
+            }
+        }
+    }
+
+    private long[] aggregateGoodput() {
+        long[] total = new long[(int) ((endNs - originNs) / bucketNs) + 1];
+        for (Conn c : conns) {
+            for (int i = 0; i < Math.min(c.goodput.length, total.length); i++) {
+                total[i] += c.goodput[i];
+            }
+        }
+        return total;
+    }
+
+    /** Writes bucket_ms,conn,port,kb_per_s for every non-empty bucket, plus conn 0 for the aggregate. */
+    public void writeGoodput(Path path) throws IOException {
+        double bucketSeconds = bucketNs / 1e9;
+        try (BufferedWriter w = Files.newBufferedWriter(path)) {
+            w.write("bucket_ms,conn,port,kb_per_s\n");
+            long[] total = aggregateGoodput();
+            for (int i = 0; i < total.length; i++) {
+                w.write(String.format("%.1f,0,0,%.2f%n", i * bucketNs / 1e6, total[i] / 1024.0 / bucketSeconds));
+            }
+            for (Conn c : conns) {
+                for (int i = 0; i < c.goodput.length; i++) {
+                    if (c.goodput[i] > 0) {
+                        w.write(String.format("%.1f,%d,%d,%.2f%n", i * bucketNs / 1e6, c.id, c.port, c.goodput[i] / 1024.0 / bucketSeconds));
+                    }
+                }
+            }
+        }
+    }
+
+    private static double percent(long part, long whole) {
+        return whole == 0 ? 0.0 : 100.0 * part / whole;
+    }
+
+    public static void main(String[] args) throws IOException {
+        List<Path> traces = new ArrayList<>();
+        long bucketMs = DEFAULT_BUCKET_MS;
+        int top = DEFAULT_TOP;
+        Path tsgFile = null, goodputFile = null;
+        for (String arg : args) {
+            if (arg.startsWith("--bucket=")) {
+                bucketMs = Long.parseLong(arg.substring("--bucket=".length()));
+            } else if (arg.startsWith("--tsg=")) {
+                tsgFile = Paths.get(arg.substring("--tsg=".length()));
+            } else if (arg.startsWith("--goodput=")) {
+                goodputFile = Paths.get(arg.substring("--goodput=".length()));
+            } else if (arg.startsWith("--top=")) {
+                top = Integer.parseInt(arg.substring("--top=".length()));
+            } else {
+                traces.add(Paths.get(arg));
+            }
+        }
+        if (traces.isEmpty() || bucketMs < 1) {
+            System.err.println("Usage: java TraceAnalyzer trace.bin [more.bin ...] [--bucket=MS] [--tsg=FILE] [--goodput=FILE] [--top=N]");
+            System.exit(1);
+        }
+
+        TraceAnalyzer analyzer = new TraceAnalyzer(bucketMs);
+        analyzer.scanHeaders(traces);
+        if (tsgFile != null) {
+            // Time-sequence graph points: one row per send, retransmit, ACK, drop and timeout
+            analyzer.tsg = new BufferedWriter(new FileWriter(tsgFile.toFile()), 1 << 20);
+            analyzer.tsg.write("time_ms,conn,port,event,seq\n");
+        }
+        try {
+            for (Path trace : traces) {
+                analyzer.process(trace);
+            }
+        } finally {
+            if (analyzer.tsg != null) {
+                analyzer.tsg.close();
+            }
+        }
+        analyzer.report(top);
+        if (goodputFile != null) {
+            analyzer.writeGoodput(goodputFile);
+            System.out.println("\nGoodput series written to " + goodputFile);
+        }
+        if (tsgFile != null) {
+            System.out.println("Time-sequence points written to " + tsgFile);
+        }
+    }
+}
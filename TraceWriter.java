@@ -0,0 +1,126 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Compact binary event trace shared by {@link Client} and {@link server}, read back by
+ * {@link TraceAnalyzer}. A 24-byte header is followed by fixed 25-byte records:
+ *
+ * <pre>
+ *   header: int magic | int version | long epochNanos | long nanoOrigin
+ *   record: long nanoTime | int connId | byte type | int seq | int a | int b
+ * </pre>
+ *
+ * nanoOrigin is System.nanoTime() at the moment the wall clock read epochNanos, so traces of
+ * the client and the server can be put on one time axis. connId is the client's ephemeral
+ * port, which both ends see. The OS hands the same port to later connections, so each end
+ * records OPEN when a connection starts and the analyzer tells connections apart by it.
+ * Records go into a direct buffer that is written to the channel whenever it fills, so
+ * tracing costs one buffer copy per event and no allocation.
+ *
+ * record() goes through one shared buffer. Threads that should not contend for it, such as the
+ * server's shards, each take a {@link Lane} with a buffer of its own; lanes only meet when a
+ * full buffer is written out. Records of one lane keep their order, records of different lanes
+ * are interleaved a buffer at a time.
+ */
+public final class TraceWriter implements Closeable {
+
+    public static final int MAGIC = 0x52445454; // "RDTT"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 24;
+    public static final int RECORD_SIZE = 25;
+
+    // --- Event types; meaning of seq / a / b ---
+    public static final byte SEND = 1; // seq, payload length, flags
+    public static final byte RETRANSMIT = 2; // seq, payload length, flags
+    public static final byte ACK = 3; // cumulative ack, newly acknowledged file bytes, flags
+    public static final byte DROP = 4; // seq, payload length, flags (simulated loss or AQM drop at the server)
+    public static final byte CORRUPT = 5; // seq, payload length, flags (CRC mismatch at the server)
+    public static final byte TIMEOUT = 6; // base, RTO in microseconds, 0
+    public static final byte FAST_RETRANSMIT = 7; // base, cwnd before, 0
+    public static final byte CWND = 8; // 0, cwnd, ssthresh
+    public static final byte RECEIVE = 9; // seq, payload length, flags (accepted by the server)
+    public static final byte MARK = 10; // seq, payload length, flags (ECN-marked by the server's AQM)
+    public static final byte OPEN = 11; // 0, 0, 0 (connected by the client, accepted by the server)
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final FileChannel channel;
+    private final List<Lane> lanes = new ArrayList<>(); // Guarded by itself
+    private final Lane shared;
+
+    /** A buffer of its own for the threads of one shard; see the class comment. */
+    public final class Lane {
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        private Lane() {
+        }
+
+        public synchronized void record(int connId, byte type, int seq, int a, int b) {
+            if (!channel.isOpen()) return;
+            if (buffer.remaining() < RECORD_SIZE) {
+                drain(buffer);
+            }
+            buffer.putLong(System.nanoTime()).putInt(connId).put(type).putInt(seq).putInt(a).putInt(b);
+        }
+
+        synchronized void flush() {
+            if (channel.isOpen()) drain(buffer);
+        }
+    }
+
+    public TraceWriter(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION)
+                .putLong(System.currentTimeMillis() * 1_000_000L).putLong(System.nanoTime()).flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        shared = lane();
+    }
+
+    public Lane lane() {
+        Lane lane = new Lane();
+        synchronized (lanes) {
+            lanes.add(lane);
+        }
+        return lane;
+    }
+
+    public void record(int connId, byte type, int seq, int a, int b) {
+        shared.record(connId, type, seq, a, b);
+    }
+
+    /** Writes a lane's buffer out whole, so records of different lanes never interleave mid-record. */
+    private void drain(ByteBuffer buffer) {
+        buffer.flip();
+        synchronized (channel) {
+            try {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } catch (IOException e) {
+                System.err.println("[Trace] Write failed, tracing stopped: " + e.getMessage());
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (lanes) {
+            for (Lane lane : lanes) {
+                lane.flush();
+            }
+        }
+        channel.close();
+    }
+}
@@ -1,26 +1,772 @@
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.security.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32C;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 public class server {
 
-    private static final int PORT = 3923;
-    private static final int CHUNK_SIZE = 1024; // Must match client's CHUNK_SIZE
+    private static final int PORT = 3923; // Path 0; --paths=N also listens on the N - 1 ports above it
+    private static final int CHUNK_SIZE = 1024; // Smallest chunk size offered; scheduler burst unit
+    private static final int MAX_CHUNK_SIZE = 64 * 1024; // Largest chunk size the handshake agrees to
+    private static final int FRAME_HEADER = 21; // seq + tsVal + flags + len + crc
+    private static final int PARITY_HEADER = 17; // blockLen + k + j + lenXor + the covered flags byte
     private static final double LOSS_PROB = 0.10; // 10% simulated packet loss
+    private static final double CORRUPT_PROB = 0.01; // 1% simulated bit errors per KB of payload
+    private static final String UPLOAD_DIR = "server_uploads";
+    private static final int PROGRESS_INTERVAL = 64; // Persist resume state every N stored packets
+
+    // --- Admission Control ---
+    private static final int MAX_HANDLERS = 64; // Uploads served concurrently
+    private static final int MAX_BACKLOG = 128; // Accepted connections waiting for a handler
+    private static final String BUSY = "BUSY"; // Greeting that tells the client to back off and retry
+
+    // --- Graceful Shutdown ---
+    private static final long DRAIN_TIMEOUT_S = 30; // Default for --drain=S: time in-flight uploads get to finish
+    private static final long ABORT_GRACE_S = 5; // After the deadline, time cut-off handlers get to persist their state
+    private static final long DRAIN_REPORT_S = 5; // How often the remaining uploads are printed while draining
+    private static volatile boolean draining = false;
+    private static final List<ServerSocket> listeners = new CopyOnWriteArrayList<>();
+    private static final Set<ClientHandler> liveHandlers = ConcurrentHashMap.newKeySet();
+
+    // --- Fair Bandwidth Scheduling ---
+    private static final long LINK_CAPACITY = 4 * 1024 * 1024; // Bytes/s shared by all uploads
+    private static final long SCHED_INTERVAL_MS = 200; // How often shares are recomputed
+    private static final long REPORT_INTERVAL_MS = 5000; // How often throughput is printed
+    private static final double RWND_HORIZON_S = 0.1; // Advertised window covers this much of a share
+    private static final Map<String, Double> TENANT_WEIGHTS = Map.of(
+            "default", 1.0,
+            "priority", 4.0);
+
+    // One link per path, each LINK_CAPACITY wide and split among the connections on its port
+    private static BandwidthScheduler[] schedulers;
+
+    private static TraceWriter trace; // Set by --trace=FILE
+    private static int pathMtu = 0; // Set by --mtu=N: larger frames vanish, like a PMTU black hole
+    private static AqmQueue.Policy aqmPolicy; // Set by --aqm=red|codel; null means no queue management
+    private static PrintStream packetLog = System.out; // Per-packet lines; --quiet drops them
+    private static final AtomicLong rejectedBusy = new AtomicLong(); // Turned down by every shard
+
+    // Transfer IDs with a live connection, mapped to the handler that owns the transfer's file.
+    // A second upload of the same ID is refused unless it joins as a subflow of that handler
+    // (spans shards and paths, since a transfer's shard is only picked by the acceptor).
+    private static final Map<String, ClientHandler> activeTransfers = new ConcurrentHashMap<>();
+
+    // --- Wire format flags (must match client's) ---
+    private static final byte FLAG_PARITY = 0x01; // Data header: payload is an FEC parity block
+    private static final byte FLAG_COMPRESSED = 0x02; // Data header: payload is a raw-deflated chunk
+    private static final byte FLAG_ECT = 0x04; // Data header: sender is ECN-capable, mark instead of dropping
+    private static final byte FLAG_PROBE = 0x08; // Data header: padding that tests whether a bigger chunk size gets through
+    private static final byte ACK_RECOVERED = 0x01; // ACK header: triggered by an FEC recovery
+    private static final byte ACK_ECE = 0x02; // ACK header: the packet was ECN-marked (congestion experienced)
+    private static final byte ACK_PROBE = 0x04; // ACK header: answers a size probe, acknowledges no new data
 
     public static void main(String[] args) {
-        System.out.println("[Server] Starting on port " + PORT);
-        try (ServerSocket ss = new ServerSocket(PORT)) {
-            int clientId = 0;
-            while (true) {
+        int shardCount = 1;
+        int pathCount = 1;
+        long drainSeconds = DRAIN_TIMEOUT_S;
+        for (String arg : args) {
+            if (arg.startsWith("--drain=")) {
+                drainSeconds = Long.parseLong(arg.substring("--drain=".length()));
+            } else if (arg.startsWith("--shards=")) {
+                // Every shard needs at least one handler of the fixed total
+                shardCount = Math.min(Math.max(1, Integer.parseInt(arg.substring("--shards=".length()))), MAX_HANDLERS);
+            } else if (arg.startsWith("--paths=")) {
+                pathCount = Math.max(1, Integer.parseInt(arg.substring("--paths=".length())));
+            } else if (arg.startsWith("--mtu=")) {
+                pathMtu = Integer.parseInt(arg.substring("--mtu=".length()));
+                System.out.println("[Server] Simulating a path MTU of " + pathMtu + " bytes");
+            } else if (arg.startsWith("--aqm=")) {
+                aqmPolicy = AqmQueue.Policy.valueOf(arg.substring("--aqm=".length()).toUpperCase());
+                System.out.println("[Server] " + aqmPolicy + " queue management on every connection");
+            } else if (arg.equals("--quiet")) {
+                packetLog = new PrintStream(OutputStream.nullOutputStream());
+            } else if (arg.startsWith("--trace=")) {
+                try {
+                    trace = new TraceWriter(Paths.get(arg.substring("--trace=".length())));
+                } catch (IOException e) {
+                    System.err.println("[Server] Cannot open trace file: " + e.getMessage());
+                    return;
+                }
+            }
+        }
+        Shard[] shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(i, shardCount);
+        }
+        schedulers = new BandwidthScheduler[pathCount];
+        for (int i = 0; i < pathCount; i++) {
+            schedulers[i] = new BandwidthScheduler(LINK_CAPACITY, pathCount > 1 ? "[Sched p" + i + "]" : "[Sched]");
+        }
+        System.out.println("[Server] Starting on port " + (pathCount > 1 ? PORT + "-" + (PORT + pathCount - 1) : PORT)
+                + (shardCount > 1 ? " with " + shardCount + " shards" : ""));
+        // SIGTERM / Ctrl-C drain the server instead of killing uploads mid-packet
+        long drainTimeout = drainSeconds;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> drain(shards, drainTimeout), "drain"));
+
+        AtomicInteger clientIds = new AtomicInteger();
+        for (int path = 1; path < pathCount; path++) {
+            int p = path;
+            new Thread(() -> acceptLoop(p, shards, clientIds), "acceptor-path-" + p).start();
+        }
+        try {
+            acceptLoop(0, shards, clientIds);
+        } finally {
+            for (Shard shard : shards) {
+                shard.handlers.shutdown();
+            }
+        }
+    }
+
+    /** Accepts connections on the port of {@code path} and hands them to a shard, until draining starts. */
+    private static void acceptLoop(int path, Shard[] shards, AtomicInteger clientIds) {
+        try (ServerSocket ss = new ServerSocket(PORT + path)) {
+            listeners.add(ss);
+            while (!draining) {
                 Socket s = ss.accept();
-                clientId++;
-                System.out.printf("[Server] Client %d connected (%s)%n",
-                        clientId, s.getInetAddress().getHostAddress());
-                new Thread(new ClientHandler(s, clientId)).start();
+                int clientId = clientIds.incrementAndGet();
+                // Round-robin, falling through to the next shard when one is full; BUSY only
+                // once every shard has turned the connection down.
+                ClientHandler handler = new ClientHandler(s, clientId, path);
+                Shard admittedBy = null;
+                for (int i = 0; i < shards.length && admittedBy == null; i++) {
+                    Shard shard = shards[(clientId + i) % shards.length];
+                    if (shard.submit(handler)) {
+                        admittedBy = shard;
+                    }
+                }
+                String where = schedulers.length > 1 ? " on path " + path : "";
+                if (admittedBy != null) {
+                    System.out.printf("[Server] Client %d connected (%s)%s on shard %d; %s%n", clientId,
+                            s.getInetAddress().getHostAddress(), where, admittedBy.index, admissionStats(shards));
+                } else {
+                    rejectedBusy.incrementAndGet();
+                    rejectBusy(s);
+                    System.out.printf("[Server] Client %d rejected%s, server busy; %s%n", clientId, where, admissionStats(shards));
+                }
             }
         } catch (IOException e) {
-            System.err.println("[Server] Fatal error: " + e.getMessage());
+            if (draining) {
+                System.out.println("[Server] Stopped accepting on port " + (PORT + path));
+            } else {
+                System.err.println("[Server] Fatal error on port " + (PORT + path) + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Shutdown hook. Stops accepting and turns queued connections away, lets in-flight uploads
+     * run to completion until the drain deadline, then closes the ones still going. A handler
+     * that is cut off fsyncs its .part file and persists its resume record on the way out, so
+     * its client resumes after the restart instead of starting over.
+     */
+    private static void drain(Shard[] shards, long drainSeconds) {
+        draining = true;
+        System.out.printf("[Server] Shutting down: no new uploads, %d in flight get up to %d s to finish%n",
+                liveHandlers.size(), drainSeconds);
+        for (ServerSocket ss : listeners) {
+            try {
+                ss.close();
+            } catch (IOException ignored) {
+            }
+        }
+        for (Shard shard : shards) {
+            shard.handlers.shutdown(); // Queued connections still run, and are told BUSY at once
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(drainSeconds);
+        while (!awaitShards(shards, Math.min(deadline, System.nanoTime() + TimeUnit.SECONDS.toNanos(DRAIN_REPORT_S)))) {
+            if (System.nanoTime() - deadline >= 0) {
+                System.out.printf("[Server] Drain deadline passed, closing %d unfinished uploads; their progress is kept%n",
+                        liveHandlers.size());
+                for (ClientHandler handler : liveHandlers) {
+                    handler.abort();
+                }
+                if (!awaitShards(shards, System.nanoTime() + TimeUnit.SECONDS.toNanos(ABORT_GRACE_S))) {
+                    System.err.printf("[Server] %d handlers did not stop in time%n", liveHandlers.size());
+                }
+                break;
+            }
+            System.out.printf("[Server] Draining: %d uploads still running%n", liveHandlers.size());
+        }
+
+        if (trace != null) {
+            try {
+                trace.close(); // Last, so the records of the drained uploads are in it
+            } catch (IOException ignored) {
+            }
+        }
+        System.out.println("[Server] Shutdown complete.");
+    }
+
+    /** Waits until every shard's handlers have finished or {@code deadline} (System.nanoTime()) passes. */
+    private static boolean awaitShards(Shard[] shards, long deadline) {
+        try {
+            for (Shard shard : shards) {
+                if (!shard.handlers.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /** Answers the handshake with BUSY in place of the greeting and hangs up. */
+    private static void rejectBusy(Socket s) {
+        rejectBusy(s, "Server at capacity, try again later.");
+    }
+
+    private static void rejectBusy(Socket s, String reason) {
+        try (Socket socket = s) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeUTF(BUSY + " " + reason);
+            out.flush();
+        } catch (IOException ignored) {
+            // The client is going away either way
+        }
+    }
+
+    /** Sums the per-shard counters; with more than one shard, each shard's own figures follow. */
+    private static String admissionStats(Shard[] shards) {
+        int active = 0, queued = 0, maxHandlers = 0, maxBacklog = 0;
+        long admitted = 0;
+        StringBuilder perShard = new StringBuilder();
+        for (Shard shard : shards) {
+            active += shard.handlers.getActiveCount();
+            queued += shard.handlers.getQueue().size();
+            maxHandlers += shard.maxHandlers;
+            maxBacklog += shard.maxBacklog;
+            admitted += shard.admitted.get();
+            perShard.append(String.format(" %d:%d/%d", shard.index, shard.handlers.getActiveCount(), shard.maxHandlers));
+        }
+        String total = String.format("active %d/%d, queued %d/%d, admitted %d, rejected %d",
+                active, maxHandlers, queued, maxBacklog, admitted, rejectedBusy.get());
+        return shards.length > 1 ? total + " [shards" + perShard + "]" : total;
+    }
+
+    // --- Shards ---
+    // A slice of the handler capacity with its own pool, queue, admission counter and trace
+    // buffer. This partitions one pool; it adds no threads and scales nothing by itself: the
+    // acceptor per port, the transfer ID registry and the bandwidth schedulers (one link per
+    // path, split by weight across its flows) are shared by all shards.
+    private static final class Shard {
+        final int index;
+        final int maxHandlers;
+        final int maxBacklog;
+        final ThreadPoolExecutor handlers;
+        final AtomicLong admitted = new AtomicLong();
+        final TraceWriter.Lane trace; // null unless --trace is given
+
+        Shard(int index, int shardCount) {
+            this.index = index;
+            // The totals are split exactly; shardCount is capped at MAX_HANDLERS so none gets zero
+            this.maxHandlers = MAX_HANDLERS / shardCount + (index < MAX_HANDLERS % shardCount ? 1 : 0);
+            this.maxBacklog = Math.max(1, MAX_BACKLOG / shardCount + (index < MAX_BACKLOG % shardCount ? 1 : 0));
+            this.trace = server.trace == null ? null : server.trace.lane();
+            // A fixed pool with a bounded queue: once both are full, new connections are turned
+            // away immediately instead of each getting a thread the JVM cannot afford.
+            this.handlers = new ThreadPoolExecutor(maxHandlers, maxHandlers, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(maxBacklog), r -> {
+                        Thread t = new Thread(r);
+                        t.setName("shard-" + index + "-" + t.getName());
+                        return t;
+                    });
+        }
+
+        boolean submit(ClientHandler handler) {
+            handler.trace = trace; // Set before execute(), which publishes it to the handler's thread
+            if (trace != null) {
+                // Ahead of the handler's own records in this lane; a shard that turns the client
+                // away leaves an extra OPEN, which the analyzer folds into the same connection
+                trace.record(handler.socket.getPort(), TraceWriter.OPEN, 0, 0, 0);
+            }
+            try {
+                handlers.execute(handler);
+                admitted.incrementAndGet();
+                return true;
+            } catch (RejectedExecutionException e) {
+                return false;
+            }
+        }
+    }
+
+    // --- Weighted Max-Min Fair Scheduler ---
+    // Splits LINK_CAPACITY among the active uploads. Each active flow is guaranteed
+    // capacity * weight / sum(active weights); above that, capacity is water-filled: flows using
+    // less than their offer keep what they use (plus headroom to grow) and the rest is re-split
+    // by weight among the flows that want more. Shares are enforced by withholding a flow's ACKs
+    // through a token bucket and by advertising a receive window sized to the share.
+    private static final class BandwidthScheduler {
+        private static final double GROWTH_HEADROOM = 1.25; // Slack on top of a satisfied flow's usage
+        private static final double SATISFIED_RATIO = 0.8; // Below this fraction of its share a flow is demand-limited
+        private static final long IDLE_NANOS = TimeUnit.SECONDS.toNanos(1); // Silent this long = not competing
+        private static final double RATE_GAIN = 0.5; // EWMA gain; senders are bursty at round granularity
+
+        static final class Flow {
+            final int clientId;
+            final String tenant;
+            final double weight;
+            final long startNanos = System.nanoTime();
+            volatile double share; // Bytes/s allotted by the last recompute
+            private long intervalBytes = 0;
+            private long totalBytes = 0;
+            private double rate = 0; // Smoothed bytes/s
+            private long lastActive = System.nanoTime();
+            private double tokens = 0;
+            private long lastRefill = System.nanoTime();
+
+            Flow(int clientId, String tenant, double weight) {
+                this.clientId = clientId;
+                this.tenant = tenant;
+                this.weight = weight;
+            }
+
+            /** Charges {@code bytes} to the flow, blocking until its token bucket covers them. */
+            void acquire(int bytes) {
+                long waitNanos;
+                synchronized (this) {
+                    long now = System.nanoTime();
+                    intervalBytes += bytes;
+                    totalBytes += bytes;
+                    lastActive = now;
+                    double burst = Math.max(share * RWND_HORIZON_S, 4 * CHUNK_SIZE);
+                    tokens = Math.min(burst, tokens + share * (now - lastRefill) / 1e9);
+                    lastRefill = now;
+                    tokens -= bytes;
+                    waitNanos = tokens < 0 ? (long) (-tokens / share * 1e9) : 0;
+                }
+                if (waitNanos > 0) {
+                    LockSupport.parkNanos(waitNanos); // The debt is repaid by the refill after waking
+                }
+            }
+
+            /** Receive window in packets that lets the sender fill the share without queueing here. */
+            int advertisedWindow(int chunkSize) {
+                return Math.max(1, (int) Math.ceil(share * RWND_HORIZON_S / chunkSize));
+            }
+
+            synchronized long totalBytes() {
+                return totalBytes;
+            }
+
+            synchronized double updateRate(double seconds) {
+                rate += RATE_GAIN * (intervalBytes / seconds - rate);
+                intervalBytes = 0;
+                return rate;
+            }
+
+            synchronized double rate() {
+                return rate;
+            }
+
+            synchronized boolean isActive(long now) {
+                return now - lastActive < IDLE_NANOS;
+            }
+        }
+
+        private final long capacity;
+        private final String label; // Log prefix, names the path when there are several
+        private final List<Flow> flows = new CopyOnWriteArrayList<>();
+        private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "bandwidth-scheduler");
+            t.setDaemon(true);
+            return t;
+        });
+        private long lastRecompute = System.nanoTime();
+        private long closedBytes = 0; // Bytes charged by flows that have already finished
+        private final long startNanos = System.nanoTime();
+
+        BandwidthScheduler(long capacity, String label) {
+            this.capacity = capacity;
+            this.label = label;
+            timer.scheduleAtFixedRate(this::recompute, SCHED_INTERVAL_MS, SCHED_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            timer.scheduleAtFixedRate(this::report, REPORT_INTERVAL_MS, REPORT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+
+        Flow register(int clientId, String tenant) {
+            Flow flow = new Flow(clientId, tenant, TENANT_WEIGHTS.getOrDefault(tenant, TENANT_WEIGHTS.get("default")));
+            synchronized (this) {
+                flows.add(flow); // First, so the weight it competes with includes its own
+                flow.share = guarantee(flow, activeWeight(System.nanoTime()));
+            }
+            return flow;
+        }
+
+        void unregister(Flow flow) {
+            flows.remove(flow);
+            long bytes = flow.totalBytes();
+            synchronized (this) {
+                closedBytes += bytes;
+            }
+            double seconds = (System.nanoTime() - flow.startNanos) / 1e9;
+            System.out.printf("%s C%d (%s, weight %.1f) done: %,d bytes, %.1f KB/s average%n",
+                    label, flow.clientId, flow.tenant, flow.weight, bytes, bytes / 1024.0 / seconds);
+        }
+
+        private double activeWeight(long now) {
+            double weights = 0;
+            for (Flow f : flows) {
+                if (f.isActive(now)) weights += f.weight;
+            }
+            return weights;
+        }
+
+        /** The flow's weighted share of the whole link among the flows competing for it. */
+        private double guarantee(Flow flow, double activeWeight) {
+            return capacity * flow.weight / (activeWeight + (flow.isActive(System.nanoTime()) ? 0 : flow.weight));
+        }
+
+        private synchronized void recompute() {
+            long now = System.nanoTime();
+            double seconds = (now - lastRecompute) / 1e9;
+            lastRecompute = now;
+
+            double activeWeight = activeWeight(now);
+            Map<Flow, Double> demand = new HashMap<>();
+            List<Flow> unsatisfied = new ArrayList<>();
+            for (Flow f : flows) {
+                double rate = f.updateRate(seconds);
+                if (!f.isActive(now)) {
+                    f.share = guarantee(f, activeWeight); // Ready for its next burst without starving
+                    continue;
+                }
+                // A flow using most of its share may want more, so its demand is unbounded
+                demand.put(f, rate < f.share * SATISFIED_RATIO ? rate * GROWTH_HEADROOM + CHUNK_SIZE : Double.MAX_VALUE);
+                unsatisfied.add(f);
+            }
+
+            // Water-filling: satisfy the flows whose demand is under their weighted offer, repeat
+            Map<Flow, Double> fill = new HashMap<>();
+            double remaining = capacity;
+            boolean changed = true;
+            while (changed && !unsatisfied.isEmpty()) {
+                changed = false;
+                double weights = 0;
+                for (Flow f : unsatisfied) weights += f.weight;
+                for (Iterator<Flow> it = unsatisfied.iterator(); it.hasNext(); ) {
+                    Flow f = it.next();
+                    if (demand.get(f) <= remaining * f.weight / weights) {
+                        fill.put(f, demand.get(f));
+                        remaining -= demand.get(f);
+                        it.remove();
+                        changed = true;
+                    }
+                }
+            }
+            double weights = 0;
+            for (Flow f : unsatisfied) weights += f.weight;
+            for (Flow f : unsatisfied) {
+                fill.put(f, remaining * f.weight / weights);
+            }
+
+            // A demand-limited flow that speeds up may always claim its guaranteed share at once
+            for (Map.Entry<Flow, Double> e : fill.entrySet()) {
+                e.getKey().share = Math.max(e.getValue(), guarantee(e.getKey(), activeWeight));
+            }
+        }
+
+        private void report() {
+            if (flows.isEmpty()) return;
+            double aggregateRate = 0;
+            long total;
+            synchronized (this) {
+                total = closedBytes;
+            }
+            StringBuilder sb = new StringBuilder();
+            for (Flow f : flows) {
+                double rate = f.rate();
+                long bytes = f.totalBytes();
+                aggregateRate += rate;
+                total += bytes;
+                sb.append(String.format("%n%s   C%d %-8s w=%.1f share %7.1f KB/s  rate %7.1f KB/s  total %,d bytes",
+                        label, f.clientId, f.tenant, f.weight, f.share / 1024, rate / 1024, bytes));
+            }
+            System.out.printf("%s %d flows, %.1f of %.1f KB/s in use, %,d bytes since start (%.1f KB/s average)%s%n",
+                    label, flows.size(), aggregateRate / 1024, capacity / 1024.0, total,
+                    total / 1024.0 / ((System.nanoTime() - startNanos) / 1e9), sb);
+        }
+    }
+
+    // --- Active Queue Management ---
+    // Each connection's bottleneck queue is the data waiting unread in front of its handler,
+    // which the fair scheduler drains at the flow's share; like fq_codel, every connection gets
+    // its own AQM over its own queue. Congestion is signalled early: packets from ECN-capable
+    // senders are marked, which the ACK echoes, and only the others are dropped. Past
+    // LIMIT_BYTES every arrival is tail-dropped, ECN-capable or not.
+    private static final class AqmQueue {
+        enum Policy { RED, CODEL }
+
+        enum Verdict { PASS, MARK, DROP }
+
+        private static final int LIMIT_BYTES = 512 * 1024;
+        // RED (Floyd & Jacobson): signal with a probability rising linearly between the thresholds
+        private static final double RED_MIN_BYTES = 16 * 1024;
+        private static final double RED_MAX_BYTES = 64 * 1024;
+        private static final double RED_MAX_P = 0.1;
+        private static final double RED_WEIGHT = 0.02; // EWMA gain of the average queue, per packet
+        // CoDel (Nichols & Jacobson): signal once the sojourn time stays above TARGET for INTERVAL
+        private static final long CODEL_TARGET_NS = TimeUnit.MILLISECONDS.toNanos(5);
+        private static final long CODEL_INTERVAL_NS = TimeUnit.MILLISECONDS.toNanos(100);
+
+        final Policy policy;
+        private final Random random = new Random();
+        private double redAvg = 0;
+        private int redCount = -1; // Packets since the last signal, spreads RED's signals out
+        private long firstAboveTime = 0;
+        private boolean dropping = false;
+        private long dropNext = 0;
+        private int dropCount = 0;
+
+        AqmQueue(Policy policy) {
+            this.policy = policy;
+        }
+
+        /** Judges an arrival that finds {@code queuedBytes} ahead of it, drained at {@code bytesPerSecond}. */
+        Verdict enqueue(long queuedBytes, double bytesPerSecond, boolean ect) {
+            if (queuedBytes > LIMIT_BYTES) {
+                return Verdict.DROP;
+            }
+            boolean signal = policy == Policy.RED
+                    ? redSignal(queuedBytes)
+                    : codelSignal(System.nanoTime(), (long) (queuedBytes / bytesPerSecond * 1e9));
+            if (!signal) return Verdict.PASS;
+            return ect ? Verdict.MARK : Verdict.DROP;
+        }
+
+        private boolean redSignal(long queuedBytes) {
+            redAvg += RED_WEIGHT * (queuedBytes - redAvg);
+            if (redAvg < RED_MIN_BYTES) {
+                redCount = -1;
+                return false;
+            }
+            if (redAvg >= RED_MAX_BYTES) {
+                redCount = 0;
+                return true;
+            }
+            redCount++;
+            double pb = RED_MAX_P * (redAvg - RED_MIN_BYTES) / (RED_MAX_BYTES - RED_MIN_BYTES);
+            double pa = pb / Math.max(1 - redCount * pb, 1e-9);
+            if (random.nextDouble() < pa) {
+                redCount = 0;
+                return true;
+            }
+            return false;
+        }
+
+        private boolean codelSignal(long now, long sojourn) {
+            if (sojourn < CODEL_TARGET_NS) {
+                firstAboveTime = 0;
+                dropping = false;
+                return false;
+            }
+            if (!dropping) {
+                if (firstAboveTime == 0) {
+                    firstAboveTime = now + CODEL_INTERVAL_NS;
+                    return false;
+                }
+                if (now < firstAboveTime) return false;
+                dropping = true;
+                dropCount = dropCount > 2 && now - dropNext < 8 * CODEL_INTERVAL_NS ? dropCount - 2 : 1;
+                dropNext = now + (long) (CODEL_INTERVAL_NS / Math.sqrt(dropCount));
+                return true;
+            }
+            if (now < dropNext) return false;
+            dropCount++;
+            dropNext += (long) (CODEL_INTERVAL_NS / Math.sqrt(dropCount)); // Control law: signal faster while it persists
+            return true;
+        }
+    }
+
+    // --- Resumable Transfer State ---
+    // Durable record of which packets of <transferId>.part are on disk: the highest contiguous
+    // seq is implied by the first clear bit. Rewritten atomically after the data is fsynced.
+    private static final class TransferProgress {
+        private static final int MAGIC = 0x52445450; // "RDTP"
+
+        final String transferId;
+        final long fileSize;
+        final int chunkSize;
+        final BitSet received = new BitSet();
+
+        TransferProgress(String transferId, long fileSize, int chunkSize) {
+            this.transferId = transferId;
+            this.fileSize = fileSize;
+            this.chunkSize = chunkSize;
+        }
+
+        int totalPackets() {
+            return (int) ((fileSize + chunkSize - 1) / chunkSize);
+        }
+
+        int expectedSeq() {
+            return received.nextClearBit(1);
+        }
+
+        static File recordFile(File dir, String transferId) {
+            return new File(dir, transferId + ".progress");
+        }
+
+        static File partFile(File dir, String transferId) {
+            return new File(dir, transferId + ".part");
+        }
+
+        /** Loads the record for {@code transferId}, or returns null if there is none usable. */
+        static TransferProgress load(File dir, String transferId, long fileSize) {
+            File record = recordFile(dir, transferId);
+            if (!record.exists() || !partFile(dir, transferId).exists()) return null;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(record)))) {
+                if (in.readInt() != MAGIC) return null;
+                long size = in.readLong();
+                int chunkSize = in.readInt();
+                if (size != fileSize) return null;
+                TransferProgress progress = new TransferProgress(transferId, size, chunkSize);
+                byte[] bits = new byte[in.readInt()];
+                in.readFully(bits);
+                progress.received.or(BitSet.valueOf(bits));
+                return progress;
+            } catch (IOException e) {
+                return null; // A torn or foreign record just means starting over
+            }
+        }
+
+        void save(File dir) throws IOException {
+            File tmp = new File(dir, transferId + ".progress.tmp");
+            try (FileOutputStream fos = new FileOutputStream(tmp);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos))) {
+                out.writeInt(MAGIC);
+                out.writeLong(fileSize);
+                out.writeInt(chunkSize);
+                byte[] bits = received.toByteArray();
+                out.writeInt(bits.length);
+                out.write(bits);
+                out.flush();
+                fos.getFD().sync();
+            }
+            Files.move(tmp.toPath(), recordFile(dir, transferId).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        void delete(File dir) {
+            recordFile(dir, transferId).delete();
+        }
+
+        /**
+         * Re-expresses the record in {@code newChunkSize} packets. Only the contiguous prefix
+         * survives; packets stored out of order past it are received again.
+         */
+        TransferProgress rechunk(int newChunkSize) {
+            long prefix = Math.min((long) (expectedSeq() - 1) * chunkSize, fileSize);
+            TransferProgress converted = new TransferProgress(transferId, fileSize, newChunkSize);
+            int whole = (int) (prefix == fileSize ? converted.totalPackets() : prefix / newChunkSize);
+            converted.received.set(1, whole + 1);
+            return converted;
+        }
+    }
+
+    // --- FEC Decoder ---
+    // Keeps the payloads of blocks that are not fully delivered yet together with their XOR
+    // parity packets. Parity j of a block covers the members blockStart + j, + j + k, ...; once
+    // all but one member of a parity group is present, the missing one is rebuilt from the XOR.
+    // Parity covers each member's flags byte followed by its wire payload, so members are kept
+    // in that same [flags|payload] form. Members are only kept once the sender has said it sends
+    // parity, or one has arrived; without FEC nothing is copied.
+    private static final class FecDecoder {
+
+        private static final class Parity {
+            final int blockStart, blockLen, k, index, lenXor;
+            final byte[] xor;
+
+            Parity(int blockStart, int blockLen, int k, int index, int lenXor, byte[] xor) {
+                this.blockStart = blockStart;
+                this.blockLen = blockLen;
+                this.k = k;
+                this.index = index;
+                this.lenXor = lenXor;
+                this.xor = xor;
+            }
+        }
+
+        private final TreeMap<Integer, byte[]> received = new TreeMap<>();
+        private final TreeMap<Integer, List<Parity>> parities = new TreeMap<>();
+        private int blockSize = 0; // From the handshake or the first parity packet, 0 = FEC off
+
+        /** The block size the sender announced in the handshake; 0 if it sends no parity. */
+        void setBlockSize(int blockSize) {
+            this.blockSize = Math.max(blockSize, 0);
+        }
+
+        void onData(int seq, byte flags, byte[] data) {
+            if (blockSize == 0 || received.containsKey(seq)) return;
+            byte[] member = new byte[data.length + 1];
+            member[0] = flags;
+            System.arraycopy(data, 0, member, 1, data.length);
+            received.put(seq, member);
+        }
+
+        void onParity(int blockStart, byte[] payload) throws IOException {
+            DataInputStream p = new DataInputStream(new ByteArrayInputStream(payload));
+            int blockLen = p.readInt();
+            int k = p.readInt();
+            int index = p.readInt();
+            int lenXor = p.readInt();
+            byte[] xor = new byte[payload.length - 16];
+            p.readFully(xor);
+            if (blockSize == 0) blockSize = blockLen;
+            parities.computeIfAbsent(blockStart, b -> new ArrayList<>())
+                    .add(new Parity(blockStart, blockLen, k, index, lenXor, xor));
+        }
+
+        /** Rebuilds a missing packet of the block holding {@code seq}, returning (seq, [flags|payload]) or null. */
+        Map.Entry<Integer, byte[]> tryRecover(int seq, int expectedSeq) {
+            Integer blockStart = parities.floorKey(seq);
+            if (blockStart == null) return null;
+            for (Parity parity : parities.get(blockStart)) {
+                if (seq >= parity.blockStart + parity.blockLen) continue;
+                int missing = -1;
+                int missingCount = 0;
+                for (int m = parity.blockStart + parity.index; m < parity.blockStart + parity.blockLen; m += parity.k) {
+                    if (m >= expectedSeq && !received.containsKey(m)) {
+                        missing = m;
+                        missingCount++;
+                    }
+                }
+                if (missingCount != 1) continue;
+
+                byte[] data = parity.xor.clone();
+                int len = parity.lenXor;
+                for (int m = parity.blockStart + parity.index; m < parity.blockStart + parity.blockLen; m += parity.k) {
+                    if (m == missing) continue;
+                    byte[] member = received.get(m);
+                    if (member == null) return null; // Already written and pruned; nothing is missing
+                    len ^= member.length - 1;
+                    for (int i = 0; i < member.length; i++) data[i] ^= member[i];
+                }
+                if (len < 0 || len + 1 > data.length) continue;
+                return new AbstractMap.SimpleEntry<>(missing, Arrays.copyOf(data, len + 1));
+            }
+            return null;
+        }
+
+        /** Drops everything belonging to blocks that lie entirely below {@code expectedSeq}. */
+        void prune(int expectedSeq) {
+            if (blockSize == 0) {
+                received.headMap(expectedSeq).clear();
+                return;
+            }
+            int currentBlockStart = ((expectedSeq - 1) / blockSize) * blockSize + 1;
+            received.headMap(currentBlockStart).clear();
+            parities.headMap(currentBlockStart).clear();
         }
     }
 
@@ -28,107 +774,467 @@ public class server {
 
         private final Socket socket;
         private final int id;
+        private final int path; // Index of the port the connection came in on
         private final Random random = new Random();
 
-        ClientHandler(Socket socket, int id) {
+        private DataOutputStream out;
+        private RandomAccessFile part;
+
+        // Multipath: the handler that claimed a transfer owns its file and the state below; other
+        // connections of the same client join it as subflows, each with its own path, flow and
+        // ACKs, and store their packets through the owner under its lock.
+        private ClientHandler session = this;
+        private boolean open = false; // Owner only: the file accepts packets, subflows may join
+
+        // RDT variables; out-of-order packets go straight to their offset in the .part file
+        private volatile int expectedSeq = 1;
+        private int chunkSize;
+        private boolean complete = false;
+        private boolean digestOk = false;
+        private TransferProgress progress;
+        private int unsavedPackets = 0;
+        private String transferClaimed;
+        private final FecDecoder fec = new FecDecoder();
+        private int recoveredPackets = 0;
+        private final Inflater inflater = new Inflater(true);
+        private byte[] inflated;
+        private long wireBytes = 0; // Payload bytes as received, to report the compression gain
+        private long rawBytes = 0;
+
+        // Integrity checks
+        private final CRC32C crc = new CRC32C();
+        private final ByteBuffer frameHeader = ByteBuffer.allocate(17);
+        private int corruptPackets = 0;
+        private final AqmQueue aqm = aqmPolicy == null ? null : new AqmQueue(aqmPolicy);
+        private int ecnMarked = 0, aqmDropped = 0;
+
+        private BandwidthScheduler.Flow flow;
+        private volatile boolean aborted = false; // Closed by the drain deadline, not by the client
+        private TraceWriter.Lane trace; // The admitting shard's, set by Shard.submit()
+        private final PrintStream log = packetLog; // Per-packet lines
+
+        ClientHandler(Socket socket, int id, int path) {
             this.socket = socket;
             this.id = id;
+            this.path = path;
+        }
+
+        /** Cuts the connection off; the blocked read fails and the handler persists what it has. */
+        void abort() {
+            aborted = true;
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
         }
 
         @Override
         public void run() {
+            if (draining) { // Was still queued when shutdown began
+                rejectBusy(socket, "Server restarting, try again later.");
+                return;
+            }
+            liveHandlers.add(this);
+            try {
+                socket.setTcpNoDelay(true); // ACKs must not wait behind Nagle
+            } catch (SocketException ignored) {
+            }
             try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
                  DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+                this.out = out;
 
-                // 1. Handshake: Ask for a file name
+                // 1. Handshake: file name, transfer ID, size, tenant, wanted chunk size and whether
+                // to join a live transfer in; first seq still needed, agreed chunk size and the
+                // largest allowed out
                 out.writeUTF("Server ready. Please send file name.");
                 out.flush();
                 String fileName = in.readUTF();
-                System.out.printf("[C%d] Client requested to send file \"%s\"%n", id, fileName);
+                String transferId = in.readUTF();
+                long fileSize = in.readLong();
+                String tenant = in.readUTF();
+                chunkSize = Math.max(CHUNK_SIZE, Math.min(in.readInt(), MAX_CHUNK_SIZE));
+                boolean join = in.readBoolean();
+                fec.setBlockSize(in.readInt()); // A subflow's packets are decoded by the owner, with its setting
+                System.out.printf("[C%d] Client requested to %s file \"%s\" (transfer %s, tenant %s)%n",
+                        id, join ? "add a subflow to" : "send", fileName, transferId, tenant);
+                if (join) {
+                    ClientHandler owner = activeTransfers.get(transferId);
+                    int resumeFrom = owner == null ? -1 : owner.joinableFrom();
+                    if (resumeFrom < 1) {
+                        System.out.printf("[C%d] No live transfer %s to join, refusing.%n", id, transferId);
+                        out.writeInt(-1);
+                        out.flush();
+                        return;
+                    }
+                    session = owner;
+                    chunkSize = owner.chunkSize;
+                    flow = schedulers[path].register(id, tenant);
+                    out.writeInt(resumeFrom);
+                    out.writeInt(chunkSize);
+                    out.writeInt(MAX_CHUNK_SIZE);
+                    out.flush();
+                    System.out.printf("[C%d] Joined transfer %s of C%d as a subflow on path %d%n", id, transferId, owner.id, path);
+                    receive(in);
+                    return;
+                }
+                if (!transferId.matches("[0-9a-f]{1,64}") || activeTransfers.putIfAbsent(transferId, this) != null) {
+                    System.out.printf("[C%d] Transfer %s is invalid or already in progress, refusing.%n", id, transferId);
+                    out.writeInt(-1);
+                    out.flush();
+                    return;
+                }
+                transferClaimed = transferId;
 
-                // 2. Prepare to receive the file
-                File clientDir = new File("server_uploads");
+                // 2. Prepare to receive the file, resuming from the durable record if there is one
+                File clientDir = new File(UPLOAD_DIR);
                 if (!clientDir.exists()) clientDir.mkdirs();
-                File destFile = new File(clientDir, "received_C" + id + "_" + fileName);
-                try (FileOutputStream fos = new FileOutputStream(destFile)) {
+                File partFile = TransferProgress.partFile(clientDir, transferId);
+                progress = TransferProgress.load(clientDir, transferId, fileSize);
+                if (progress == null) {
+                    progress = new TransferProgress(transferId, fileSize, chunkSize);
+                    partFile.delete();
+                } else {
+                    if (progress.chunkSize != chunkSize) {
+                        System.out.printf("[C%d] Chunk size changed from %d to %d bytes%n", id, progress.chunkSize, chunkSize);
+                        progress = progress.rechunk(chunkSize);
+                    }
+                    System.out.printf("[C%d] Resuming transfer %s: %d of %d packets already stored%n",
+                            id, transferId, progress.received.cardinality(), progress.totalPackets());
+                }
+                expectedSeq = progress.expectedSeq();
+                flow = schedulers[path].register(id, tenant);
 
-                    // 3. RDT variables
-                    int expectedSeq = 1;
-                    Map<Integer, byte[]> outOfOrderBuffer = new TreeMap<>();
+                part = new RandomAccessFile(partFile, "rw");
+                synchronized (this) {
+                    open = true; // Subflows may join from here on
+                }
+                try {
+                    out.writeInt(expectedSeq);
+                    out.writeInt(chunkSize);
+                    out.writeInt(MAX_CHUNK_SIZE);
+                    out.flush();
 
-                    // 4. Receive packet stream
-                    while (true) {
-                        int seq;
+                    // 3. Receive packet stream
+                    receive(in);
+                } finally {
+                    synchronized (this) {
+                        open = false; // Packets still arriving on subflows are ignored from here on
                         try {
-                            seq = in.readInt(); // May throw EOFException
-                        } catch (EOFException e) {
-                            System.out.printf("[C%d] Client closed connection cleanly.%n", id);
-                            break;
-                        }
-
-                        if (seq == -1) { // -1 is the "EOF" sentinel from the client
-                            System.out.printf("[C%d] Received EOF sentinel from client.%n", id);
-                            break;
-                        }
-                        int len = in.readInt();
-                        byte[] data = new byte[len];
-                        in.readFully(data);
-
-                        // 4a. Simulate packet loss
-                        if (random.nextDouble() < LOSS_PROB) {
-                            System.out.printf("[C%d]  ~~ Dropped packet %d (simulated loss) ~~%n", id, seq);
-                            continue; // Don't send an ACK for the dropped packet
+                            part.getFD().sync(); // Data must be durable before the record claims it
+                        } finally {
+                            part.close();
                         }
-
-                        System.out.printf("[C%d]  Received packet %d%n", id, seq);
-
-                        // 4b. Handle received packet
-                        if (seq == expectedSeq) {
-                            // In-order packet
-                            fos.write(data);
-                            expectedSeq++;
-
-                            // Check buffer for any subsequent packets
-                            while (outOfOrderBuffer.containsKey(expectedSeq)) {
-                                byte[] bufferedData = outOfOrderBuffer.remove(expectedSeq);
-                                fos.write(bufferedData);
-                                System.out.printf("[C%d]  Wrote buffered packet %d from memory%n", id, expectedSeq);
-                                expectedSeq++;
-                            }
-                        } else if (seq > expectedSeq) {
-                            // Out-of-order packet, buffer it if not already present
-                            if (!outOfOrderBuffer.containsKey(seq)) {
-                                outOfOrderBuffer.put(seq, data);
-                                System.out.printf("[C%d]  Buffered out-of-order packet %d%n", id, seq);
-                            }
-                        }
-                        // If seq < expectedSeq, it's a duplicate of an already processed packet, so we ignore it.
-
-                        // 4c. Send cumulative ACK for the highest in-order packet received
-                        int ackToSend = expectedSeq - 1;
-                        out.writeInt(ackToSend);
-                        out.flush();
-                        System.out.printf("[C%d]  -> Sent ACK for %d%n", id, ackToSend);
                     }
+                }
 
-                    System.out.printf("[C%d] File transfer for \"%s\" complete. Saved to %s%n",
+                // 4. Finish: a verified file is moved into place; anything else stays resumable
+                if (digestOk) {
+                    File destFile = new File(clientDir, "received_C" + id + "_" + fileName);
+                    Files.move(partFile.toPath(), destFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    progress.delete(clientDir);
+                    progress = null;
+                    System.out.printf("[C%d] File transfer for \"%s\" complete, digest verified. Saved to %s%n",
                             id, fileName, destFile.getPath());
+                } else if (complete) {
+                    System.out.printf("[C%d] Digest MISMATCH for \"%s\"; discarding transfer %s%n", id, fileName, transferId);
+                    partFile.delete();
+                    progress.delete(clientDir);
+                    progress = null;
+                } else {
+                    System.out.printf("[C%d] Transfer %s incomplete (%d of %d packets); kept for resume%n",
+                            id, transferId, progress.received.cardinality(), progress.totalPackets());
+                }
 
-                } // FileOutputStream is auto-closed
+                // 5. Persist and release the transfer before confirming, so a client that reconnects
+                // straight away (e.g. to change chunk size) finds the record instead of a claim
+                if (progress != null) {
+                    progress.save(new File(UPLOAD_DIR));
+                    progress = null;
+                }
+                activeTransfers.remove(transferClaimed, this);
+                transferClaimed = null;
 
-                // 5. Final confirmation and cleanup
+                // 6. Final confirmation and cleanup
                 out.writeInt(-1); // Acknowledge end of session
+                out.writeBoolean(digestOk);
                 out.flush();
 
             } catch (IOException ioe) {
-                System.err.printf("[C%d] I/O error: %s%n", id, ioe.getMessage());
+                if (aborted) {
+                    System.out.printf("[C%d] Closed by shutdown before the upload finished%n", id);
+                } else {
+                    System.err.printf("[C%d] I/O error: %s%n", id, ioe.getMessage());
+                }
             } finally {
+                if (progress != null) {
+                    try {
+                        progress.save(new File(UPLOAD_DIR)); // part was fsynced or closed above
+                        if (aborted) {
+                            System.out.printf("[C%d] Resume state saved: %d of %d packets stored%n",
+                                    id, progress.received.cardinality(), progress.totalPackets());
+                        }
+                    } catch (IOException e) {
+                        System.err.printf("[C%d] Could not persist resume state: %s%n", id, e.getMessage());
+                    }
+                }
+                if (transferClaimed != null) {
+                    activeTransfers.remove(transferClaimed, this);
+                }
+                if (flow != null) {
+                    schedulers[path].unregister(flow);
+                }
                 try {
                     socket.close();
                 } catch (IOException ignored) {
                 }
+                inflater.end();
+                liveHandlers.remove(this);
                 System.out.printf("[C%d] Handler terminated.%n", id);
             }
         }
+
+        /** First seq the owned transfer still needs, or -1 if it cannot take a subflow (yet or any more). */
+        private synchronized int joinableFrom() {
+            return open ? expectedSeq : -1;
+        }
+
+        /** Reads frames until the client hangs up or, on the owning connection, sends its EOF sentinel. */
+        private void receive(DataInputStream in) throws IOException {
+            while (true) {
+                int seq;
+                try {
+                    seq = in.readInt(); // May throw EOFException
+                } catch (EOFException e) {
+                    System.out.printf("[C%d] Client closed connection cleanly.%n", id);
+                    break;
+                }
+
+                if (seq == -1) { // -1 is the "EOF" sentinel from the client, followed by the file digest
+                    System.out.printf("[C%d] Received EOF sentinel from client.%n", id);
+                    byte[] expected = new byte[32];
+                    in.readFully(expected);
+                    if (session == this) {
+                        synchronized (this) { // No subflow may write while the file is hashed
+                            complete = expectedSeq > progress.totalPackets();
+                            digestOk = complete && MessageDigest.isEqual(expected, digestOf(part));
+                        }
+                    }
+                    break;
+                }
+                long tsVal = in.readLong(); // Sender timestamp, echoed in the ACK
+                byte flags = in.readByte();
+                int len = in.readInt();
+                int checksum = in.readInt();
+                if (len < 0 || len > MAX_CHUNK_SIZE + PARITY_HEADER) {
+                    throw new IOException("Frame length " + len + " out of range");
+                }
+                byte[] data = new byte[len];
+                in.readFully(data);
+
+                // 3a. Simulate bit errors, then verify the CRC; a corrupt packet counts as lost.
+                // Errors hit bits, so bigger packets are more likely to be hit.
+                if (len > 0 && random.nextDouble() < 1 - Math.pow(1 - CORRUPT_PROB, len / 1024.0)) {
+                    data[random.nextInt(len)] ^= (byte) (1 << random.nextInt(8));
+                }
+                if (!checksumOk(seq, tsVal, flags, data, checksum)) {
+                    corruptPackets++;
+                    trace(TraceWriter.CORRUPT, seq, len, flags);
+                    log.printf("[C%d]  ~~ Discarded packet %d (CRC32C mismatch) ~~%n", id, seq);
+                    continue;
+                }
+
+                // 3b. Simulate packet loss, and a path that cannot carry frames above its MTU
+                if (pathMtu > 0 && len + FRAME_HEADER > pathMtu) {
+                    trace(TraceWriter.DROP, seq, len, flags);
+                    log.printf("[C%d]  ~~ Dropped %d-byte frame %d (path MTU %d) ~~%n",
+                            id, len + FRAME_HEADER, seq, pathMtu);
+                    continue;
+                }
+                if (random.nextDouble() < LOSS_PROB) {
+                    trace(TraceWriter.DROP, seq, len, flags);
+                    log.printf("[C%d]  ~~ Dropped %s %d (simulated loss) ~~%n", id,
+                            (flags & FLAG_PARITY) != 0 ? "parity for block" : "packet", seq);
+                    continue; // Don't send an ACK for the dropped packet
+                }
+
+                // A probe made it through the path at its size; it carries no data to store
+                if ((flags & FLAG_PROBE) != 0) {
+                    flow.acquire(len + FRAME_HEADER);
+                    log.printf("[C%d]  Received %d-byte size probe%n", id, len);
+                    sendAck(tsVal, ACK_PROBE);
+                    continue;
+                }
+
+                // 3c. Bottleneck queue: early congestion signal as an ECN mark or a drop.
+                // What is still unread behind this packet is the queue it waited in.
+                byte ackFlags = 0;
+                if (aqm != null) {
+                    AqmQueue.Verdict verdict = aqm.enqueue(in.available(), flow.share, (flags & FLAG_ECT) != 0);
+                    if (verdict == AqmQueue.Verdict.DROP) {
+                        aqmDropped++;
+                        trace(TraceWriter.DROP, seq, len, flags);
+                        log.printf("[C%d]  ~~ Dropped packet %d (%s queue) ~~%n", id, seq, aqm.policy);
+                        continue;
+                    }
+                    if (verdict == AqmQueue.Verdict.MARK) {
+                        ecnMarked++;
+                        ackFlags = ACK_ECE;
+                        trace(TraceWriter.MARK, seq, len, flags);
+                        log.printf("[C%d]  ~~ ECN-marked packet %d (%s queue) ~~%n", id, seq, aqm.policy);
+                    }
+                }
+
+                // 3d. Parity packets are not ACKed themselves; they only matter if they
+                // let us rebuild a lost packet, which is then ACKed like any other.
+                trace(TraceWriter.RECEIVE, seq, len, flags);
+                if ((flags & FLAG_PARITY) != 0) {
+                    flow.acquire(len + FRAME_HEADER);
+                    if (session != this) continue; // FEC is only decoded on the owning connection
+                    synchronized (this) {
+                        fec.onParity(seq, data);
+                    }
+                    recover(seq, tsVal);
+                    continue;
+                }
+
+                log.printf("[C%d]  Received packet %d%n", id, seq);
+                flow.acquire(len + FRAME_HEADER); // Holds the ACK back once this flow is over its share
+                session.deliver(seq, flags, data);
+                sendAck(tsVal, ackFlags);
+                if (session == this) {
+                    recover(seq, tsVal);
+                }
+            }
+
+            if (recoveredPackets > 0) {
+                System.out.printf("[C%d] FEC rebuilt %d lost packets%n", id, recoveredPackets);
+            }
+            if (wireBytes < rawBytes) {
+                System.out.printf("[C%d] Compression: %,d wire bytes for %,d file bytes (%.1f%%)%n",
+                        id, wireBytes, rawBytes, 100.0 * wireBytes / rawBytes);
+            }
+            System.out.printf("[C%d] %d corrupt packets discarded%n", id, corruptPackets);
+            if (aqm != null) {
+                // Every mark is a congestion signal that did not cost the sender a retransmission
+                System.out.printf("[C%d] %s: %d packets ECN-marked (retransmissions avoided), %d dropped%n",
+                        id, aqm.policy, ecnMarked, aqmDropped);
+            }
+        }
+
+        /** Writes a packet at its offset in the .part file and advances expectedSeq past stored packets. */
+        private synchronized void deliver(int seq, byte flags, byte[] data) throws IOException {
+            if (!open) return; // The owner has finished; a subflow's straggler has nowhere to go
+            fec.onData(seq, flags, data);
+            if (seq < expectedSeq || seq > progress.totalPackets() || progress.received.get(seq)) {
+                return; // Duplicate of an already stored packet (or garbage past the end), so we ignore it
+            }
+            long offset = (long) (seq - 1) * progress.chunkSize;
+            int rawLen = (int) Math.min(progress.chunkSize, progress.fileSize - offset);
+            part.seek(offset);
+            if ((flags & FLAG_COMPRESSED) != 0) {
+                part.write(inflate(data, rawLen), 0, rawLen);
+            } else {
+                part.write(data);
+            }
+            wireBytes += data.length;
+            rawBytes += rawLen;
+            progress.received.set(seq);
+
+            if (seq == expectedSeq) {
+                int next = progress.expectedSeq();
+                if (next > seq + 1) {
+                    log.printf("[C%d]  Packets %d..%d already stored out of order%n", id, seq + 1, next - 1);
+                }
+                expectedSeq = next;
+                fec.prune(expectedSeq);
+            } else {
+                log.printf("[C%d]  Stored out-of-order packet %d%n", id, seq);
+            }
+
+            if (++unsavedPackets >= PROGRESS_INTERVAL) {
+                part.getFD().sync();
+                progress.save(new File(UPLOAD_DIR));
+                unsavedPackets = 0;
+            }
+        }
+
+        /** Rebuilds what the stored parity allows for the block holding {@code seq}, ACKing each one. */
+        private synchronized void recover(int seq, long tsVal) throws IOException {
+            boolean any = false;
+            Map.Entry<Integer, byte[]> rebuilt;
+            while ((rebuilt = fec.tryRecover(seq, expectedSeq)) != null) {
+                int lostSeq = rebuilt.getKey();
+                log.printf("[C%d]  ** Rebuilt packet %d from parity **%n", id, lostSeq);
+                recoveredPackets++;
+                byte[] member = rebuilt.getValue();
+                deliver(lostSeq, member[0], Arrays.copyOfRange(member, 1, member.length));
+                sendAck(tsVal, ACK_RECOVERED);
+                any = true;
+            }
+            if (any) {
+                fec.prune(expectedSeq);
+            }
+        }
+
+        /** Inflates a compressed chunk that must expand to exactly {@code rawLen} bytes. */
+        private byte[] inflate(byte[] data, int rawLen) throws IOException {
+            if (inflated == null || inflated.length < progress.chunkSize) {
+                inflated = new byte[progress.chunkSize];
+            }
+            inflater.reset();
+            inflater.setInput(data);
+            try {
+                int n = inflater.inflate(inflated, 0, rawLen);
+                if (n != rawLen || !inflater.finished()) {
+                    throw new IOException("Compressed chunk inflated to " + n + " bytes, expected " + rawLen);
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt compressed chunk: " + e.getMessage(), e);
+            }
+            return inflated;
+        }
+
+        private void trace(byte type, int seq, int a, int b) {
+            if (trace != null) {
+                trace.record(socket.getPort(), type, seq, a, b);
+            }
+        }
+
+        private boolean checksumOk(int seq, long tsVal, byte flags, byte[] data, int checksum) {
+            frameHeader.clear();
+            frameHeader.putInt(seq).putLong(tsVal).put(flags).putInt(data.length).flip();
+            crc.reset();
+            crc.update(frameHeader);
+            crc.update(data, 0, data.length);
+            return (int) crc.getValue() == checksum;
+        }
+
+        private static byte[] digestOf(RandomAccessFile file) throws IOException {
+            MessageDigest sha256;
+            try {
+                sha256 = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IOException("SHA-256 unavailable", e);
+            }
+            byte[] buf = new byte[64 * 1024];
+            file.seek(0);
+            int n;
+            while ((n = file.read(buf)) != -1) {
+                sha256.update(buf, 0, n);
+            }
+            return sha256.digest();
+        }
+
+        /** Sends a cumulative ACK for the highest in-order packet received, with the flow's receive window. */
+        private void sendAck(long tsVal, byte flags) throws IOException {
+            int ackToSend = session.expectedSeq - 1;
+            int rwnd = flow.advertisedWindow(chunkSize);
+            out.writeInt(ackToSend);
+            out.writeLong(tsVal);
+            out.writeByte(flags);
+            out.writeInt(rwnd);
+            out.flush();
+            log.printf("[C%d]  -> Sent ACK for %d (rwnd %d)%n", id, ackToSend, rwnd);
+        }
     }
-}
\ No newline at end of file
+}